@@ -0,0 +1,52 @@
+package de.unistuttgart.t2.modulith.cart;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations on a {@link CartContent} that are done for each cart when an order is placed, with a
+ * growing number of products in the cart.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartContentBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int products;
+
+    private CartContent cart;
+
+    @Setup
+    public void setUp() {
+        Map<String, Integer> content = new HashMap<>();
+        for (int i = 0; i < products; i++) {
+            content.put("product-" + i, i + 1);
+        }
+        cart = new CartContent(content);
+    }
+
+    @Benchmark
+    public void getUnitsOfAllProducts(Blackhole blackhole) {
+        for (String productId : cart.getProductIds()) {
+            blackhole.consume(cart.getUnits(productId));
+        }
+    }
+
+    @Benchmark
+    public Integer getUnitsOfMissingProduct() {
+        return cart.getUnits("missing-product");
+    }
+
+    @Benchmark
+    public CartContent copyContent() {
+        return new CartContent(new HashMap<>(cart.getContent()));
+    }
+}
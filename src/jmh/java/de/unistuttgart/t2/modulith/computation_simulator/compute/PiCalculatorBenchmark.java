@@ -0,0 +1,33 @@
+package de.unistuttgart.t2.modulith.computation_simulator.compute;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the simulated computation with a growing number of points. The time grows linearly, thus these numbers
+ * suffice to extrapolate the time of the default of the computation simulator, which is 100,000,000 points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PiCalculatorBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int totalPoints;
+
+    private PiCalculator calculator;
+
+    @Setup
+    public void setUp() {
+        calculator = new PiCalculator(totalPoints);
+    }
+
+    @Benchmark
+    public Double doCompute() {
+        return calculator.doCompute();
+    }
+}
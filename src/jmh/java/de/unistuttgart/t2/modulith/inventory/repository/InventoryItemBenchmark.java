@@ -0,0 +1,50 @@
+package de.unistuttgart.t2.modulith.inventory.repository;
+
+import de.unistuttgart.t2.modulith.inventory.InsufficientUnitsAvailableException;
+import de.unistuttgart.t2.modulith.inventory.Product;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations on an {@link InventoryItem} that reservations actually use, i.e. the counters of reserved
+ * units and the mapping to a product.
+ * <p>
+ * Neither operation loads or scans the reservations of the item, thus their costs do not depend on the number of
+ * reservations. The item is set up again for each iteration, such that the units in stock do not run out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryItemBenchmark {
+
+    private InventoryItem item;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        item = new InventoryItem("product-id", "name", "description", Integer.MAX_VALUE, 4.2);
+    }
+
+    /**
+     * Reserves a unit as {@code InventoryService.makeReservations} does and commits it as the commit of an order does.
+     */
+    @Benchmark
+    public InventoryItem reserveAndCommit() throws InsufficientUnitsAvailableException {
+        item.increaseReservedUnits(1);
+        item.commitReservedUnits(1);
+        return item;
+    }
+
+    @Benchmark
+    public int getAvailableUnits() {
+        return item.getAvailableUnits();
+    }
+
+    @Benchmark
+    public Product toProduct() {
+        return InventoryProductMapper.toProduct(item);
+    }
+}
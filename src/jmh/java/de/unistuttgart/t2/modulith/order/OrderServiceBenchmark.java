@@ -0,0 +1,122 @@
+package de.unistuttgart.t2.modulith.order;
+
+import de.unistuttgart.t2.modulith.cart.CartContent;
+import de.unistuttgart.t2.modulith.cart.CartService;
+import de.unistuttgart.t2.modulith.inventory.InventoryService;
+import de.unistuttgart.t2.modulith.order.repository.OrderItem;
+import de.unistuttgart.t2.modulith.order.repository.OrderRepository;
+import de.unistuttgart.t2.modulith.payment.PaymentService;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the confirmation of an order, most notably the calculation of its line items and total, with a growing
+ * number of products in the cart.
+ * <p>
+ * The services the order module depends on are replaced by stubs that answer immediately, such that only the work of
+ * the {@link OrderService} itself is measured. The stubs are written by hand, as mocks of a mocking framework would
+ * take more time than the service.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderServiceBenchmark {
+
+    private static final String SESSION_ID = "benchmark-session";
+
+    @Param({"1", "10", "100"})
+    public int products;
+
+    private OrderService orderService;
+
+    @Setup
+    public void setUp() {
+        Map<String, Integer> content = new HashMap<>();
+        Map<String, Double> prices = new HashMap<>();
+        for (int i = 0; i < products; i++) {
+            content.put("product-" + i, i + 1);
+            prices.put("product-" + i, 0.5 + i);
+        }
+        orderService = new OrderService(new StubCartService(new CartContent(content)),
+            new StubInventoryService(prices), new StubPaymentService(), stubOrderRepository());
+    }
+
+    @Benchmark
+    public String confirmOrder() throws Exception {
+        return orderService.confirmOrder(SESSION_ID, "cardNumber", "cardOwner", "checksum");
+    }
+
+    /**
+     * @return repository that assigns an id to the orders to save, but does not keep them
+     */
+    private static OrderRepository stubOrderRepository() {
+        return (OrderRepository) Proxy.newProxyInstance(OrderRepository.class.getClassLoader(),
+            new Class<?>[]{OrderRepository.class}, (proxy, method, args) -> {
+                if (method.getName().equals("save")) {
+                    OrderItem order = (OrderItem) args[0];
+                    order.setOrderId("order-id");
+                    return order;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private static class StubCartService extends CartService {
+
+        private final CartContent cart;
+
+        StubCartService(CartContent cart) {
+            super(null, null);
+            this.cart = cart;
+        }
+
+        @Override
+        public Optional<CartContent> getCart(String sessionId) {
+            return Optional.of(cart);
+        }
+
+        @Override
+        public void deleteCart(String sessionId) {
+        }
+    }
+
+    private static class StubInventoryService extends InventoryService {
+
+        private final Map<String, Double> prices;
+
+        StubInventoryService(Map<String, Double> prices) {
+            super(null, null);
+            this.prices = prices;
+        }
+
+        @Override
+        public Map<String, Double> getPrices(Collection<String> productIds) {
+            return prices;
+        }
+
+        @Override
+        public void holdReservations(String sessionId, String orderId, Collection<String> productIds) {
+        }
+
+        @Override
+        public void commitReservations(String orderId, Map<String, Integer> units) {
+        }
+    }
+
+    private static class StubPaymentService extends PaymentService {
+
+        StubPaymentService() {
+            super("http://localhost", null);
+        }
+
+        @Override
+        public void doPayment(String cardNumber, String cardOwner, String checksum, double total) {
+        }
+    }
+}
@@ -1,26 +1,34 @@
 package de.unistuttgart.t2.modulith.cart;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * The content of a users shopping cart.
  * <p>
- * Holds the productIds of the products in the cart and how many units of each product are in the cart.
+ * Holds the productIds of the products in the cart and how many units of each product are in the cart, and when the
+ * cart was created.
  *
  * @author maumau
  */
 public final class CartContent {
 
     private Map<String, Integer> content;
+    private Date creationDate;
 
     public CartContent() {
         this(new HashMap<>());
     }
 
     public CartContent(Map<String, Integer> content) {
+        this(content, null);
+    }
+
+    public CartContent(Map<String, Integer> content, Date creationDate) {
         this.content = content;
+        this.creationDate = creationDate;
     }
 
     public void setContent(Map<String, Integer> content) {
@@ -31,6 +39,10 @@ public final class CartContent {
         return content;
     }
 
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
     /**
      * Get the productIds of the products in this cart.
      *
@@ -2,13 +2,32 @@ package de.unistuttgart.t2.modulith.cart;
 
 import de.unistuttgart.t2.modulith.cart.repository.CartItem;
 import de.unistuttgart.t2.modulith.cart.repository.CartRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.SystemVariable;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
 /**
  * Manages the products in the users carts.
  * <p>
@@ -23,8 +42,24 @@ public class CartService {
 
     private final CartRepository cartRepository;
 
-    public CartService(@Autowired CartRepository cartRepository) {
+    private final MongoTemplate mongoTemplate;
+
+    public CartService(@Autowired CartRepository cartRepository, @Autowired MongoTemplate mongoTemplate) {
         this.cartRepository = cartRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Registers the gauge of the carts in the database. The number is estimated from the metadata of the collection,
+     * thus it is cheap to get.
+     *
+     * @param meterRegistry registry for the gauge, the global registry is used if absent
+     */
+    @Autowired
+    public void setMeterRegistry(ObjectProvider<MeterRegistry> meterRegistry) {
+        Gauge.builder("t2.cart.live", mongoTemplate, template -> template.estimatedCount(CartItem.class))
+            .description("Carts that are neither ordered nor expired and collected yet")
+            .register(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
     }
 
     /**
@@ -39,7 +74,7 @@ public class CartService {
         Optional<CartItem> optionalCartItem = cartRepository.findById(sessionId);
         if (optionalCartItem.isPresent()) {
             Map<String, Integer> content = optionalCartItem.get().getContent();
-            result = Optional.of(new CartContent(content));
+            result = Optional.of(new CartContent(content, optionalCartItem.get().getCreationDate()));
         }
         return result;
     }
@@ -47,7 +82,9 @@ public class CartService {
     /**
      * Add the given number units of product to a users cart.
      * <p>
-     * If the product is already in the cart, the units of that product will be updated.
+     * If the product is already in the cart, the units of that product will be updated. The cart is created if it does
+     * not exist yet. Either way, this is a single atomic upsert, thus concurrent updates of the same cart do not get
+     * lost.
      *
      * @param sessionId identifies the cart to add to
      * @param productId id of product to be added
@@ -58,14 +95,8 @@ public class CartService {
             throw new IllegalArgumentException("Value of units must not be negative.");
         }
 
-        Optional<CartContent> optCartContent = getCart(sessionId);
-        if (optCartContent.isPresent()) {
-            CartContent cartContent = optCartContent.get();
-            cartContent.getContent().put(productId, units + cartContent.getUnits(productId));
-            saveCart(sessionId, cartContent);
-        } else {
-            saveCart(sessionId, new CartContent(Map.of(productId, units)));
-        }
+        Update update = new Update().inc(contentOf(productId), units).setOnInsert("creationDate", Date.from(Instant.now()));
+        mongoTemplate.upsert(query(where("_id").is(sessionId)), update, CartItem.class);
     }
 
     /**
@@ -73,6 +104,8 @@ public class CartService {
      * <p>
      * If the number of units in the cart decrease to zero or less, the product is remove from the cart. If the no such
      * product is in cart, do nothing.
+     * <p>
+     * The units are decreased and the product is removed with a single atomic update, c.f. {@link #updateCart}.
      *
      * @param sessionId identifies the cart to delete from
      * @param productId id of the product to be deleted
@@ -83,16 +116,57 @@ public class CartService {
             throw new IllegalArgumentException("Value of units must not be negative.");
         }
 
-        Optional<CartContent> optCartContent = getCart(sessionId);
-        if (optCartContent.isPresent()) {
-            CartContent cartContent = optCartContent.get();
-            int remainingUnitsInCart = cartContent.getUnits(productId) - units;
-            if (remainingUnitsInCart > 0) {
-                cartContent.getContent().put(productId, remainingUnitsInCart);
-            } else {
-                cartContent.getContent().remove(productId);
+        updateCart(sessionId, Map.of(productId, -units));
+    }
+
+    /**
+     * Apply the given changes of units to a users cart.
+     * <p>
+     * Positive changes add units, negative changes delete units, as with {@link #addItemToCart} and
+     * {@link #deleteItemFromCart}. All changes are applied with a single atomic update of the cart. The cart is created
+     * only if units are added.
+     * <p>
+     * Additions only are a plain increment. If units are deleted, the update is an aggregation pipeline that computes
+     * the new units of each product from its current units and removes the product if they drop to zero or less. Thus,
+     * deleting a product that is not in the cart changes nothing and the units of a product never get negative, not
+     * even for a moment in which a concurrent addition could get lost.
+     *
+     * @param sessionId identifies the cart to update
+     * @param changes   number of units to add (positive) or delete (negative) per product id
+     */
+    public void updateCart(String sessionId, Map<String, Integer> changes) {
+        Map<String, Integer> nonZero = new LinkedHashMap<>();
+        changes.forEach((productId, units) -> {
+            if (units != null && units != 0) {
+                nonZero.put(productId, units);
             }
-            saveCart(sessionId, cartContent);
+        });
+        if (nonZero.isEmpty()) {
+            return;
+        }
+        Query cart = query(where("_id").is(sessionId));
+        boolean increased = nonZero.values().stream().anyMatch(units -> units > 0);
+        if (nonZero.values().stream().allMatch(units -> units > 0)) {
+            Update update = new Update().setOnInsert("creationDate", Date.from(Instant.now()));
+            nonZero.forEach((productId, units) -> update.inc(contentOf(productId), units));
+            mongoTemplate.upsert(cart, update, CartItem.class);
+            return;
+        }
+
+        AggregationUpdate update = AggregationUpdate.update();
+        nonZero.forEach((productId, units) -> {
+            AggregationExpression updated = ArithmeticOperators.valueOf(
+                ConditionalOperators.ifNull(contentOf(productId)).then(0)).add(units);
+            update.set(contentOf(productId)).toValue(ConditionalOperators
+                .when(ComparisonOperators.valueOf(updated).greaterThanValue(0))
+                .then(updated)
+                .otherwise(SystemVariable.REMOVE));
+        });
+        if (increased) {
+            update.set("creationDate").toValue(ConditionalOperators.ifNull("creationDate").then(Date.from(Instant.now())));
+            mongoTemplate.upsert(cart, update, CartItem.class);
+        } else {
+            mongoTemplate.updateFirst(cart, update, CartItem.class);
         }
     }
 
@@ -105,14 +179,7 @@ public class CartService {
         cartRepository.deleteById(sessionId);
     }
 
-    private void saveCart(String id, CartContent cartContent) {
-        Optional<CartItem> optionalCartItem = cartRepository.findById(id);
-        if (optionalCartItem.isPresent()) {
-            CartItem cartItem = optionalCartItem.get();
-            cartItem.setContent(cartContent.getContent());
-            cartRepository.save(cartItem);
-        } else {
-            cartRepository.save(new CartItem(id, cartContent.getContent()));
-        }
+    private static String contentOf(String productId) {
+        return "content." + productId;
     }
 }
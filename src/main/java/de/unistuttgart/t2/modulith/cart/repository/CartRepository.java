@@ -3,8 +3,17 @@ package de.unistuttgart.t2.modulith.cart.repository;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.Collection;
+import java.util.Date;
 
 public interface CartRepository extends MongoRepository<CartItem, String> {
 
     void deleteByIdIn(Collection<String> ids);
+
+    /**
+     * Delete all carts created before the given date with a single server side query.
+     *
+     * @param latestDateAlive carts created before this date are deleted
+     * @return number of deleted carts
+     */
+    long deleteByCreationDateBefore(Date latestDateAlive);
 }
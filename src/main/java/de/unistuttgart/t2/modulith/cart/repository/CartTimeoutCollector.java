@@ -1,11 +1,18 @@
 package de.unistuttgart.t2.modulith.cart.repository;
 
 import jakarta.annotation.PostConstruct;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,13 +20,15 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Date;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 /**
- * Periodically checks all reservations and deletes those whose time to life has been exceeded.
+ * Deletes carts whose time to life has been exceeded.
  * <p>
- * (apparently there is a mongo native attach on expiry date to documents, but i didn't find anything on whether this
- * also works with the spring repository interface. thus the manual deletion.)
+ * By default the collector periodically deletes expired carts with a server side query on the indexed creation date.
+ * If {@code t2.cart.useTtlIndex} is enabled, the expiry is left to MongoDB instead: a TTL index on the creation date is
+ * created at startup and no task is scheduled. MongoDB removes expired documents about once a minute, thus carts may
+ * live up to a minute longer than their TTL in that mode.
  *
  * @author maumau
  * @author davidkopp
@@ -29,61 +38,115 @@ public class CartTimeoutCollector {
 
     private static final Logger LOG = LoggerFactory.getLogger(CartTimeoutCollector.class);
 
+    static final String CREATION_DATE_INDEX = "creationDate_expiry";
+
     private final long TTL; // seconds
     private final int taskRate; // milliseconds
+    private final boolean useTtlIndex;
 
     private final CartRepository repository;
 
-    private final ThreadPoolTaskScheduler taskScheduler;
+    private final MongoTemplate mongoTemplate;
+
+    private final TaskScheduler taskScheduler;
 
     /**
      * Create collector.
      *
-     * @param TTL      the cart entries' time to live in seconds
-     * @param taskRate rate at which the collector checks the repo in milliseconds
+     * @param repository    the repository that handles the cart data
+     * @param mongoTemplate used to manage the index on the creation date
+     * @param taskScheduler the scheduler to use for this collector
+     * @param TTL           the cart entries' time to live in seconds
+     * @param taskRate      rate at which the collector checks the repo in milliseconds
+     * @param useTtlIndex   whether MongoDB shall expire the carts by itself
      */
-    public CartTimeoutCollector(@Autowired CartRepository repository,
-                                @Autowired ThreadPoolTaskScheduler taskScheduler,
+    @Autowired
+    public CartTimeoutCollector(CartRepository repository,
+                                MongoTemplate mongoTemplate,
+                                TaskScheduler taskScheduler,
                                 @Value("${t2.cart.TTL:0}") long TTL,
-                                @Value("${t2.cart.taskRate:0}") int taskRate) {
+                                @Value("${t2.cart.taskRate:0}") int taskRate,
+                                @Value("${t2.cart.useTtlIndex:false}") boolean useTtlIndex) {
         this.repository = repository;
+        this.mongoTemplate = mongoTemplate;
         this.taskScheduler = taskScheduler;
         this.TTL = TTL;
         this.taskRate = taskRate;
+        this.useTtlIndex = useTtlIndex;
+    }
+
+    /**
+     * Create collector that neither manages any index nor uses the TTL index.
+     *
+     * @param TTL      the cart entries' time to live in seconds
+     * @param taskRate rate at which the collector checks the repo in milliseconds
+     */
+    public CartTimeoutCollector(CartRepository repository, TaskScheduler taskScheduler, long TTL,
+                                int taskRate) {
+        this(repository, null, taskScheduler, TTL, taskRate, false);
     }
 
     /**
-     * Schedule the task to check cart contents and delete them if necessary.
+     * Create the index on the creation date and schedule the task to check cart contents and delete them if necessary.
      * <p>
-     * If the taskRate is 0, no task will be scheduled.
+     * If the TTL index is used, or the taskRate is 0, no task will be scheduled. If the TTL index can not be created,
+     * the collector falls back to polling.
      */
     @PostConstruct
     public void scheduleTask() {
+        if (mongoTemplate != null) {
+            Duration expireAfter = useTtlIndex && TTL > 0 ? Duration.ofSeconds(TTL) : null;
+            if (ensureCreationDateIndex(expireAfter) && expireAfter != null) {
+                LOG.info("Carts expire by TTL index after {} seconds. Polling for expired carts is disabled.", TTL);
+                return;
+            }
+        }
         if (taskRate > 0) {
             taskScheduler.scheduleAtFixedRate(this::cleanup, Duration.ofMillis(taskRate));
         }
     }
 
-    void cleanup() {
-        Collection<String> expiredCarts = getExpiredCarts();
-        deleteItems(expiredCarts);
-        LOG.info("Deleted {} expired carts", expiredCarts.size());
-    }
-
     /**
-     * Get all ids of expired carts.
-     * <p>
-     * The get step is separated from the delete step because i want to lock the db as little as possible and need not
-     * do it for getting the ids.
-     * <p>
-     * Carts that were created earlier than {@code TTL} seconds before 'now' are expired.
+     * Make sure that the index on the creation date exists with the given expiry. An existing TTL index with another
+     * expiry is modified in place, an index that differs in being a TTL index at all is recreated.
      *
-     * @return all expired cart IDs
+     * @param expireAfter time after which MongoDB deletes a cart, or null for an index without expiry
+     * @return true if the index is in place
      */
-    private Collection<String> getExpiredCarts() {
-        return repository.findAll().parallelStream()
-            .filter(item -> item.getCreationDate().before(Date.from(Instant.now().minusSeconds(TTL))))
-            .map(CartItem::getId).collect(Collectors.toList());
+    boolean ensureCreationDateIndex(Duration expireAfter) {
+        IndexOperations indexOps = mongoTemplate.indexOps(CartItem.class);
+        try {
+            Optional<IndexInfo> existing = indexOps.getIndexInfo().stream()
+                .filter(info -> CREATION_DATE_INDEX.equals(info.getName())).findAny();
+            if (existing.isPresent()) {
+                Optional<Duration> currentExpiry = existing.get().getExpireAfter();
+                if (currentExpiry.equals(Optional.ofNullable(expireAfter))) {
+                    return true;
+                }
+                if (currentExpiry.isPresent() && expireAfter != null) {
+                    mongoTemplate.executeCommand(new Document("collMod", mongoTemplate.getCollectionName(CartItem.class))
+                        .append("index", new Document("name", CREATION_DATE_INDEX)
+                            .append("expireAfterSeconds", expireAfter.toSeconds())));
+                    return true;
+                }
+                indexOps.dropIndex(CREATION_DATE_INDEX);
+            }
+
+            Index index = new Index().on("creationDate", Sort.Direction.ASC).named(CREATION_DATE_INDEX);
+            if (expireAfter != null) {
+                index.expire(expireAfter);
+            }
+            indexOps.ensureIndex(index);
+            return true;
+        } catch (DataAccessException e) {
+            LOG.warn("Cannot create index {} on the creation date of carts: {}", CREATION_DATE_INDEX, e.getMessage());
+            return false;
+        }
+    }
+
+    void cleanup() {
+        long deleted = repository.deleteByCreationDateBefore(Date.from(Instant.now().minusSeconds(TTL)));
+        LOG.info("Deleted {} expired carts", deleted);
     }
 
     /**
@@ -0,0 +1,69 @@
+package de.unistuttgart.t2.modulith.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.stereotype.Service;
+import org.springframework.util.function.SingletonSupplier;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Records the latency and the errors of all public methods of the services of the application modules, e.g. of the
+ * {@code OrderService} or the {@code PaymentService}, such that a slow checkout can be traced to the module, and thus
+ * to the database or the payment provider, that is slow.
+ * <p>
+ * The services are found by their {@link Service @Service} annotation, as this module must not depend on the other
+ * modules. The calls are recorded by a {@link ModuleMetricsInterceptor}, that is added in front of other advice like
+ * transactions, such that the latency includes the commit. The buckets of the latency histograms are configured with
+ * {@code management.metrics.distribution.slo.t2.module.calls}.
+ */
+@Configuration
+public class ModuleMetricsConfig {
+
+    /**
+     * Static, as it is a bean post processor. The registry is resolved lazily, such that it is not created before all
+     * other post processors are registered.
+     */
+    @Bean
+    public static ModuleMetricsPostProcessor moduleMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ModuleMetricsPostProcessor(new ModuleMetricsInterceptor(
+            SingletonSupplier.of(() -> meterRegistry.getIfAvailable(() -> Metrics.globalRegistry))));
+    }
+
+    /**
+     * Proxies the services of the application modules with the {@link ModuleMetricsInterceptor}, or adds it to the
+     * proxy if there already is one.
+     */
+    public static class ModuleMetricsPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+
+        public ModuleMetricsPostProcessor(ModuleMetricsInterceptor interceptor) {
+            this.advisor = new DefaultPointcutAdvisor(new ServiceMethodPointcut(), interceptor);
+            setBeforeExistingAdvisors(true);
+            setProxyTargetClass(true);
+        }
+    }
+
+    /**
+     * Matches the public methods of the classes of the application modules that are annotated with
+     * {@link Service @Service}. Subclasses, e.g. mocks of tests, do not match, as the annotation is not inherited.
+     */
+    static class ServiceMethodPointcut extends StaticMethodMatcherPointcut {
+
+        ServiceMethodPointcut() {
+            setClassFilter(type -> ModuleMetricsInterceptor.isModuleClass(type) && type.isAnnotationPresent(Service.class));
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            return Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())
+                && method.getDeclaringClass() != Object.class;
+        }
+    }
+}
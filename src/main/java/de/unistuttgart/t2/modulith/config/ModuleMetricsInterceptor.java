@@ -0,0 +1,107 @@
+package de.unistuttgart.t2.modulith.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency and the errors of calls of the methods of an application module.
+ * <p>
+ * The latency is recorded by the timer {@value #CALLS}, an error additionally increments the counter
+ * {@value #ERRORS}. Both are tagged with the module, the class and the method that was called, and the simple name of
+ * the exception that was thrown, or {@code none}. If a method returns a {@link CompletableFuture}, the time until the
+ * future completes is recorded, e.g. including the time the payment provider took to answer an async payment.
+ */
+public class ModuleMetricsInterceptor implements MethodInterceptor {
+
+    public static final String CALLS = "t2.module.calls";
+    public static final String ERRORS = "t2.module.errors";
+
+    private static final String BASE_PACKAGE = "de.unistuttgart.t2.modulith.";
+
+    private final Supplier<MeterRegistry> meterRegistry;
+
+    /**
+     * @param meterRegistry supplies the registry once the first method is called, such that the registry need not exist
+     *                      when the services are created
+     */
+    public ModuleMetricsInterceptor(Supplier<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        MeterRegistry registry = meterRegistry.get();
+        Method method = invocation.getMethod();
+        Class<?> targetClass = invocation.getThis() != null
+            ? ClassUtils.getUserClass(invocation.getThis()) : method.getDeclaringClass();
+
+        Timer.Sample sample = Timer.start(registry);
+        Object result;
+        try {
+            result = invocation.proceed();
+        } catch (Throwable e) {
+            record(registry, sample, targetClass, method, e);
+            throw e;
+        }
+        if (result instanceof CompletableFuture<?> future) {
+            future.whenComplete((value, e) -> record(registry, sample, targetClass, method, e));
+        } else {
+            record(registry, sample, targetClass, method, null);
+        }
+        return result;
+    }
+
+    private static void record(MeterRegistry registry, Timer.Sample sample, Class<?> targetClass, Method method,
+                               Throwable exception) {
+        if (exception instanceof CompletionException && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        String module = module(targetClass);
+        String exceptionName = exception == null ? "none" : exception.getClass().getSimpleName();
+        sample.stop(Timer.builder(CALLS)
+            .description("Calls of the methods of the application modules")
+            .tag("module", module)
+            .tag("class", targetClass.getSimpleName())
+            .tag("method", method.getName())
+            .tag("exception", exceptionName)
+            .register(registry));
+        if (exception != null) {
+            Counter.builder(ERRORS)
+                .description("Calls of the methods of the application modules that failed")
+                .tag("module", module)
+                .tag("class", targetClass.getSimpleName())
+                .tag("method", method.getName())
+                .tag("exception", exceptionName)
+                .register(registry).increment();
+        }
+    }
+
+    /**
+     * @return name of the application module the class belongs to, i.e. its package below the base package
+     */
+    static String module(Class<?> type) {
+        String packageName = type.getPackageName();
+        if (!packageName.startsWith(BASE_PACKAGE)) {
+            return packageName;
+        }
+        String module = packageName.substring(BASE_PACKAGE.length());
+        int end = module.indexOf('.');
+        return end < 0 ? module : module.substring(0, end);
+    }
+
+    /**
+     * @return whether the class belongs to an application module
+     */
+    static boolean isModuleClass(Class<?> type) {
+        return type.getPackageName().startsWith(BASE_PACKAGE);
+    }
+}
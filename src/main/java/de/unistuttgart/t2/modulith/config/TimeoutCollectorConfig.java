@@ -2,14 +2,21 @@ package de.unistuttgart.t2.modulith.config;
 
 import de.unistuttgart.t2.modulith.cart.repository.CartTimeoutCollector;
 import de.unistuttgart.t2.modulith.inventory.repository.ReservationTimeoutCollector;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 /**
  * Configuration of the thread pool used by
  * {@link CartTimeoutCollector CartTimeoutCollector} and
  * {@link ReservationTimeoutCollector ReserverationTimeoutCollector}.
+ * <p>
+ * If virtual threads are enabled ({@code spring.threads.virtual.enabled}) and the application runs on Java 21 or later,
+ * each collection runs on a virtual thread of its own instead of on a fixed pool of platform threads.
  *
  * @author maumau
  */
@@ -17,7 +24,13 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 public class TimeoutCollectorConfig {
 
     @Bean
-    public ThreadPoolTaskScheduler threadPoolTaskScheduler() {
+    public TaskScheduler timeoutCollectorScheduler(Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskScheduler simpleAsyncTaskScheduler = new SimpleAsyncTaskScheduler();
+            simpleAsyncTaskScheduler.setVirtualThreads(true);
+            simpleAsyncTaskScheduler.setThreadNamePrefix("TimeoutCollector-");
+            return simpleAsyncTaskScheduler;
+        }
         ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
         threadPoolTaskScheduler.setPoolSize(5);
         threadPoolTaskScheduler.setThreadNamePrefix("ThreadPoolTaskScheduler");
@@ -5,7 +5,8 @@ import de.unistuttgart.t2.modulith.config.scaling.cpu.CPUUsage;
 import de.unistuttgart.t2.modulith.config.scaling.cpu.CPUUsageRequest;
 import de.unistuttgart.t2.modulith.config.scaling.memory.MemoryInfo;
 import de.unistuttgart.t2.modulith.config.scaling.memory.MemoryLeaker;
-import de.unistuttgart.t2.modulith.config.scaling.request.RequestDenier;
+import de.unistuttgart.t2.modulith.config.scaling.request.ConcurrencyLimit;
+import de.unistuttgart.t2.modulith.config.scaling.request.ConcurrencyLimiter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -18,6 +19,8 @@ import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Collection;
+
 /**
  * Contains the routes that (deterministically) influence the scaling behavior.
  *
@@ -31,11 +34,14 @@ public class AutoscalingController {
     @Autowired
     CPUManager cpuManager;
 
+    @Autowired
+    ConcurrencyLimiter concurrencyLimiter;
+
     @Operation(summary = "Unblock all requests", description = "Lifts the block for any route", tags = "Block")
     @ApiResponses(value = @ApiResponse(responseCode = "200", description = "Successfully lifted the route block"))
     @PostMapping("/autoscaling/unblock-routes")
     public void unblockRoutes() {
-        RequestDenier.shouldBlockAllRoutes(false);
+        concurrencyLimiter.shouldBlockAllRoutes(false);
         logger.info("Unblocked all non-autoscaling routes");
     }
 
@@ -43,10 +49,20 @@ public class AutoscalingController {
     @ApiResponses(value = @ApiResponse(responseCode = "200", description = "Successfully blocked all further routes"))
     @PostMapping("/autoscaling/block-routes")
     public void blockRoutes() {
-        RequestDenier.shouldBlockAllRoutes(true);
+        concurrencyLimiter.shouldBlockAllRoutes(true);
         logger.warn("Blocked all non-autoscaling routes");
     }
 
+    @Operation(summary = "Show the current concurrency limits", description = "Returns the limit of requests in flight, the requests in flight, and the rejected requests for each class of routes. The limits adapt to the latency if t2.limiter.enabled is true.", tags = "Block")
+    @ApiResponses(value = @ApiResponse(responseCode = "200", description = "Successfully returned the current concurrency limits"))
+    @GetMapping(path = "/autoscaling/concurrency-limits", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Collection<ConcurrencyLimit> getConcurrencyLimits() {
+        Collection<ConcurrencyLimit> limits = concurrencyLimiter.getLimits();
+        logger.debug("Concurrency limits: {}", limits);
+        return limits;
+    }
+
     @Operation(summary = "Ensures that consistently at least (100 * {memory})% memory is used", description = "{memory} must be a mathematical ratio ( {memory} ∈ (-∞, 1.0), i.e. 0.052 = 5.2% ), 0 disables the leak, negative values clear the leak.", tags = "Memory")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully demanded a memory usage of at least {memory}%"),
@@ -91,7 +107,17 @@ public class AutoscalingController {
         return reportMemory();
     }
 
-    @Operation(summary = "Show current memory information", description = "Returns how many bytes are currently used, free, and in total vailable.", tags = "Memory")
+    @Operation(summary = "Ensures that consistently at least {memory} MiB are used outside of the heap", description = "The memory is allocated as direct buffers on top of the memory required on the heap, 0 or negative values clear it.", tags = "Memory")
+    @ApiResponses(value = @ApiResponse(responseCode = "200", description = "Successfully demanded {memory} MiB outside of the heap"))
+    @PostMapping("/autoscaling/require-off-heap-memory/{memory}-mib")
+    @ResponseBody
+    public MemoryInfo requireOffHeapMemory(@PathVariable(name = "memory") long memory) {
+        MemoryLeaker.changeOffHeapMemory(memory << 20);
+        logger.warn("Required {} MiB memory outside of the heap", memory);
+        return reportMemory();
+    }
+
+    @Operation(summary = "Show current memory information", description = "Returns how many bytes are currently used, free, and in total vailable, and how large the memory leak is.", tags = "Memory")
     @ApiResponses(value = @ApiResponse(responseCode = "200", description = "Successfully returned the current memory information"))
     @GetMapping(path = "/autoscaling/memory-info", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
@@ -105,7 +131,8 @@ public class AutoscalingController {
         + "{cpu percentage} must be a mathematical ratio ( {cpu percentage} ∈ (-∞, 1.0 * {number of available cores}), i.e. 7.5 = 750.5% (full load for 7 cores and a half)).\n"
         + "{cpu percentage} <= 0 disables the CPU waste.\n"
         + "The mechanism works by using 100% per core for an interval of length {requested CPU percentage} * {interval length} / {number of cores} periodically.\n"
-        + "Interval length decides how long the interval is in {time unit}. Default 10.", tags = "CPU")
+        + "Interval length decides how long the interval is in {time unit}. Default 10.\n"
+        + "If feedback is true, the CPU usage of the application is measured instead and each core is only used for the share that real traffic leaves below {cpu percentage}, in slices of 10 ms. Measured and simulated usage are reported. Default false.", tags = "CPU")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully demanded a CPU usage of at least {cpu}%") })
     @PostMapping("/autoscaling/require-cpu")
@@ -125,7 +152,8 @@ public class AutoscalingController {
         + "{cpu percentage} must be a human percentage ( {cpu percentage} ∈ (-∞, 100.0 * {number of available cores}), i.e. 750.5 = 750.5% (full load for 7 cores and a half)).\n"
         + "{cpu percentage} <= 0 disables the CPU waste.\n"
         + "The mechanism works by using 100% per core for an interval of length {requested CPU percentage} * {interval length} / {number of cores} periodically.\n"
-        + "Interval length decides how long the interval is in {time unit}. Default 10.", tags = "CPU")
+        + "Interval length decides how long the interval is in {time unit}. Default 10.\n"
+        + "If feedback is true, the CPU usage of the application is measured instead and each core is only used for the share that real traffic leaves below {cpu percentage}, in slices of 10 ms. Measured and simulated usage are reported. Default false.", tags = "CPU")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully demanded a CPU usage of at least {cpu}%") })
     @PostMapping("/autoscaling/require-cpu-from-humans")
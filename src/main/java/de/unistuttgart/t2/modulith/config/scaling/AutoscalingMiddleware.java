@@ -1,7 +1,8 @@
 package de.unistuttgart.t2.modulith.config.scaling;
 
-import de.unistuttgart.t2.modulith.config.scaling.memory.MemoryLeaker;
-import de.unistuttgart.t2.modulith.config.scaling.request.RequestDenier;
+import de.unistuttgart.t2.modulith.config.scaling.request.ConcurrencyLimiter;
+import de.unistuttgart.t2.modulith.config.scaling.request.SessionRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
@@ -13,9 +14,19 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @EnableWebMvc
 public class AutoscalingMiddleware implements WebMvcConfigurer {
 
+    private final SessionRateLimiter sessionRateLimiter;
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    public AutoscalingMiddleware(@Autowired SessionRateLimiter sessionRateLimiter,
+                                 @Autowired ConcurrencyLimiter concurrencyLimiter) {
+        this.sessionRateLimiter = sessionRateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new RequestDenier()).excludePathPatterns("/autoscaling/**");
-        registry.addInterceptor(new MemoryLeaker()).excludePathPatterns("/autoscaling/**");
+        // requests throttled by their path or HTTP session should not even take a permit
+        registry.addInterceptor(sessionRateLimiter).excludePathPatterns("/autoscaling/**", "/error");
+        registry.addInterceptor(concurrencyLimiter).excludePathPatterns("/autoscaling/**", "/error");
     }
 }
@@ -2,15 +2,25 @@ package de.unistuttgart.t2.modulith.config.scaling.cpu;
 
 import org.springframework.stereotype.Component;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages how much CPU is consistently used as minimum.
+ * <p>
+ * Without feedback, each core is occupied for a fixed share of every interval, on top of the CPU used by real
+ * traffic. With feedback, the CPU usage of the whole process is measured every {@link #CONTROL_PERIOD} and each core
+ * is only occupied for the share that real traffic leaves below the minimum, in slices of {@link #SLICE}. Thus, the
+ * application sits at the minimum under varying real load, and only exceeds it if the real load does.
  *
  * @author Leon Hofmeister
  * @since 1.2.0
@@ -18,9 +28,24 @@ import java.util.concurrent.TimeUnit;
 @Component
 public final class CPUManager {
 
+    /** length of the slices each core is occupied in, if the usage is controlled by feedback */
+    static final Duration SLICE = Duration.ofMillis(10);
+    /** period at which the CPU usage of the process is measured */
+    static final Duration CONTROL_PERIOD = Duration.ofMillis(500);
+    /** weight of the latest measurement of the real CPU usage, older measurements smooth out short spikes */
+    static final double SMOOTHING = 0.5;
+
     CPUUsage status = CPUUsage.newUsageWithoutLimits();
     Optional<ScheduledExecutorService> taskExecutor = Optional.empty();
 
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /** CPU time used on purpose, in nanoseconds */
+    private final LongAdder simulatedCpuTime = new LongAdder();
+    /** time each core is occupied per slice, in nanoseconds */
+    private volatile long busyTimePerSlice;
+
     public CPUManager() {
         setupExecutor();
     }
@@ -43,6 +68,7 @@ public final class CPUManager {
         taskExecutor.ifPresent(ExecutorService::shutdownNow);
         taskExecutor = Optional.empty();
         status = CPUUsage.newUsageWithoutLimits();
+        busyTimePerSlice = 0;
     }
 
     /**
@@ -56,23 +82,35 @@ public final class CPUManager {
     private void setupExecutor() {
         taskExecutor.ifPresent(ExecutorService::shutdownNow);
         if (status.limitsPresent()) {
-            taskExecutor = Optional.of(Executors.newScheduledThreadPool(status.getAvailableCores()));
+            // one more thread for the measurement
+            taskExecutor = Optional.of(Executors.newScheduledThreadPool(status.getAvailableCores() + 1));
         }
     }
 
     /**
      * Adds {@link CPUUsage#getAvailableCores()}} tasks to the periodically running executor completely blocking one
-     * core, each running for a duration of {@code requestedCPUPercentage * intervalLength / availableCores}.
+     * core, each running for a duration of {@code requestedCPUPercentage * intervalLength / availableCores}, or for
+     * the share of each {@link #SLICE} computed by the {@link Controller} if the usage is controlled by feedback.
      */
     private void addTasks() {
         if (taskExecutor.isEmpty() || !status.limitsPresent()) {
             return;
         }
         status.refreshAvailableCores();
-        for (int i = 0; i < status.getAvailableCores(); ++i) {
-            taskExecutor.orElseThrow().scheduleAtFixedRate(this::simulateWork, 0L,
-                status.getInterval().toMillis(), TimeUnit.MILLISECONDS);
+        ScheduledExecutorService executor = taskExecutor.orElseThrow();
+        if (status.isFeedback()) {
+            // start as if there was no real usage, the controller corrects it with the first measurement
+            busyTimePerSlice = (long) (SLICE.toNanos() * status.getMinCPUUsagePerCore());
+            for (int i = 0; i < status.getAvailableCores(); ++i) {
+                executor.scheduleAtFixedRate(this::simulateSlice, 0L, SLICE.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        } else {
+            for (int i = 0; i < status.getAvailableCores(); ++i) {
+                executor.scheduleAtFixedRate(this::simulateWork, 0L,
+                    status.getInterval().toMillis(), TimeUnit.MILLISECONDS);
+            }
         }
+        executor.scheduleAtFixedRate(new Controller(status), 0L, CONTROL_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -81,8 +119,94 @@ public final class CPUManager {
      * required CPU usage is {@link CPUUsage#getMinCPUUsagePerCore()}.
      */
     private void simulateWork() {
-        long busyTime = status.limitInNanosecondsPerCore();
+        occupyCore(status.limitInNanosecondsPerCore());
+    }
+
+    /**
+     * Occupies one core completely for the time per slice the {@link Controller} computed last.<br>
+     * Callers must ensure to call this method after every {@link #SLICE}.
+     */
+    private void simulateSlice() {
+        occupyCore(busyTimePerSlice);
+    }
+
+    private void occupyCore(long busyTime) {
+        if (busyTime <= 0) {
+            return;
+        }
+        long cpuStart = currentThreadCpuTime();
         long start = System.nanoTime();
         while (System.nanoTime() <= start + busyTime && !Thread.currentThread().isInterrupted()) {}
+        simulatedCpuTime.add(cpuStart >= 0 ? currentThreadCpuTime() - cpuStart : System.nanoTime() - start);
+    }
+
+    private long currentThreadCpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * @return CPU time used by the whole process in nanoseconds, or a negative value if unknown
+     */
+    private long processCpuTime() {
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the share of each core to occupy on purpose.
+     *
+     * @param minUsagePerCore  the minimally required CPU usage per core
+     * @param realUsagePerCore the CPU usage per core that is not used on purpose, i.e. by real traffic
+     * @return the missing CPU usage per core, between 0 and 1
+     */
+    static double missingUsagePerCore(double minUsagePerCore, double realUsagePerCore) {
+        return Math.min(1, Math.max(0, minUsagePerCore - realUsagePerCore));
+    }
+
+    /**
+     * Measures the CPU usage of the process and of the tasks that occupy the cores on purpose and reports both in the
+     * required {@link CPUUsage}. If the usage is controlled by feedback, it adapts the time each core is occupied per
+     * slice to the real usage.
+     */
+    private class Controller implements Runnable {
+
+        private final CPUUsage usage;
+
+        private long lastTime = -1;
+        private long lastProcessCpuTime;
+        private long lastSimulatedCpuTime;
+        private double realUsagePerCore = Double.NaN;
+
+        Controller(CPUUsage usage) {
+            this.usage = usage;
+        }
+
+        @Override
+        public void run() {
+            long time = System.nanoTime();
+            long processCpuTime = processCpuTime();
+            long simulated = simulatedCpuTime.sum();
+            if (lastTime >= 0 && processCpuTime >= 0 && time > lastTime) {
+                usage.refreshAvailableCores();
+                double capacity = (double) (time - lastTime) * usage.getAvailableCores();
+                double measured = (processCpuTime - lastProcessCpuTime) / capacity;
+                double simulatedUsage = (simulated - lastSimulatedCpuTime) / capacity;
+                usage.measuredCPUUsagePerCore = measured;
+                usage.simulatedCPUUsagePerCore = simulatedUsage;
+
+                if (usage.isFeedback()) {
+                    double real = Math.max(0, measured - simulatedUsage);
+                    realUsagePerCore = Double.isNaN(realUsagePerCore) ? real
+                        : SMOOTHING * real + (1 - SMOOTHING) * realUsagePerCore;
+                    busyTimePerSlice = (long) (SLICE.toNanos()
+                        * missingUsagePerCore(usage.getMinCPUUsagePerCore(), realUsagePerCore));
+                }
+            }
+            lastTime = time;
+            lastProcessCpuTime = processCpuTime;
+            lastSimulatedCpuTime = simulated;
+        }
     }
 }
@@ -22,6 +22,11 @@ public final class CPUUsage {
     final Duration interval;
     final double minCPUUsagePerCore;
     final double minCPUUsageTotal; // Only for the tests and the JSON reporting
+    final boolean feedback;
+
+    // Measured by the CPUManager while this usage is required
+    volatile double measuredCPUUsagePerCore;
+    volatile double simulatedCPUUsagePerCore;
 
     // Not final as it is stated in the Javadoc that the number can change dynamically
     int availableCores = Runtime.getRuntime().availableProcessors();
@@ -76,6 +81,25 @@ public final class CPUUsage {
      */
     CPUUsage(String timeUnit, long intervalLength, double minCPUPercentage, DoubleConsumer onInvalidValue,
         boolean useHumanPercentage) {
+        this(timeUnit, intervalLength, minCPUPercentage, onInvalidValue, useHumanPercentage, false);
+    }
+
+    /**
+     * Creates a cpu usage object that optionally imposes limits.
+     *
+     * @param timeUnit           value accepted by {@link ChronoUnit#valueOf(String)}, case insensitive. null =
+     *                           {@link CPUUsage#DEFAULT_TIME_UNIT}
+     * @param intervalLength     the length of the "waste" interval in {@code timeUnit} steps, ignored if
+     *                           {@code feedback} is set
+     * @param minCPUPercentage   percentage of CPU to "waste", see
+     *                           {@link #CPUUsage(String, long, double, DoubleConsumer, boolean)}
+     * @param onInvalidValue     action to perform when {@code minCPUPercentage >=} upper interval border
+     * @param useHumanPercentage whether to require the interval in human percentages, or in mathematical ratios
+     * @param feedback           whether only the difference between {@code minCPUPercentage} and the measured usage
+     *                           is "wasted", instead of {@code minCPUPercentage} on top of the real usage
+     */
+    CPUUsage(String timeUnit, long intervalLength, double minCPUPercentage, DoubleConsumer onInvalidValue,
+        boolean useHumanPercentage, boolean feedback) {
         interval = Duration.of(intervalLength,
             ChronoUnit.valueOf(Objects.requireNonNullElse(timeUnit, DEFAULT_TIME_UNIT.name()).toUpperCase())).abs();
         onInvalidValue = Objects.requireNonNullElse(onInvalidValue, d -> {});
@@ -83,6 +107,7 @@ public final class CPUUsage {
             useHumanPercentage ? Percentage.fromHumanPercentage(minCPUPercentage / availableCores, onInvalidValue)
                 : Percentage.validateMathematicalRatio(minCPUPercentage / availableCores, onInvalidValue);
         minCPUUsageTotal = minCPUPercentage;
+        this.feedback = feedback;
     }
 
     /**
@@ -122,6 +147,28 @@ public final class CPUUsage {
         return minCPUUsageTotal;
     }
 
+    /**
+     * @return whether the CPU usage is topped up to the minimum instead of being added to the real usage
+     */
+    public boolean isFeedback() {
+        return feedback;
+    }
+
+    /**
+     * @return the CPU usage of the whole application per core during the last measurement, as mathematical ratio
+     *         comparable to {@link #getMinCPUUsagePerCore()}
+     */
+    public double getMeasuredCPUUsagePerCore() {
+        return measuredCPUUsagePerCore;
+    }
+
+    /**
+     * @return the part of {@link #getMeasuredCPUUsagePerCore()} that was "wasted" on purpose
+     */
+    public double getSimulatedCPUUsagePerCore() {
+        return simulatedCPUUsagePerCore;
+    }
+
     public void setAvailableCores(int availableCores) {
         this.availableCores = availableCores;
     }
@@ -136,7 +183,9 @@ public final class CPUUsage {
 
     @Override
     public String toString() {
-        return String.format("CPUUsage [interval=%s, minCPUUsagePerCore=%s, minCPUUsageTotal=%s, availableCores=%s]",
-            interval, minCPUUsagePerCore, minCPUUsageTotal, availableCores);
+        return String.format("CPUUsage [interval=%s, minCPUUsagePerCore=%s, minCPUUsageTotal=%s, availableCores=%s, "
+                + "feedback=%s, measuredCPUUsagePerCore=%s, simulatedCPUUsagePerCore=%s]",
+            interval, minCPUUsagePerCore, minCPUUsageTotal, availableCores, feedback, measuredCPUUsagePerCore,
+            simulatedCPUUsagePerCore);
     }
 }
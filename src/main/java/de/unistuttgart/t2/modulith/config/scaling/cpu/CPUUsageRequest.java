@@ -24,6 +24,11 @@ public final class CPUUsageRequest {
     // Wrappers because they are optional
     Long intervalLength;
     Double cpuPercentage;
+    /**
+     * Whether only the CPU usage missing to {@link #cpuPercentage} is "wasted", taking the real usage into account.
+     * Default: false
+     */
+    Boolean feedback;
 
     transient DoubleConsumer errorHandler; // for handling errors while converting the CPU percentage
 
@@ -43,7 +48,8 @@ public final class CPUUsageRequest {
     public CPUUsage convertFromRatio() {
         return new CPUUsage(convertUnit().name(),
             Objects.requireNonNullElse(intervalLength, CPUUsage.DEFAULT_INTERVAL_LENGTH),
-            Objects.requireNonNullElse(cpuPercentage, CPUUsage.DEFAULT_REQUESTED_CPU_PERCENTAGE), errorHandler);
+            Objects.requireNonNullElse(cpuPercentage, CPUUsage.DEFAULT_REQUESTED_CPU_PERCENTAGE), errorHandler, false,
+            Boolean.TRUE.equals(feedback));
     }
 
     /**
@@ -62,7 +68,8 @@ public final class CPUUsageRequest {
     public CPUUsage convertFromHumans() {
         return new CPUUsage(convertUnit().name(),
             Objects.requireNonNullElse(intervalLength, CPUUsage.DEFAULT_INTERVAL_LENGTH),
-            Objects.requireNonNullElse(cpuPercentage, CPUUsage.DEFAULT_REQUESTED_CPU_PERCENTAGE), errorHandler, true);
+            Objects.requireNonNullElse(cpuPercentage, CPUUsage.DEFAULT_REQUESTED_CPU_PERCENTAGE), errorHandler, true,
+            Boolean.TRUE.equals(feedback));
     }
 
     private ChronoUnit convertUnit() {
@@ -75,8 +82,8 @@ public final class CPUUsageRequest {
 
     @Override
     public String toString() {
-        return String.format("CPUUsageRequest [timeUnit=%s, intervalLength=%s, cpuPercentage=%s]", timeUnit,
-            intervalLength, cpuPercentage);
+        return String.format("CPUUsageRequest [timeUnit=%s, intervalLength=%s, cpuPercentage=%s, feedback=%s]",
+            timeUnit, intervalLength, cpuPercentage, feedback);
     }
 
     public String getTimeUnit() {
@@ -103,6 +110,14 @@ public final class CPUUsageRequest {
         this.cpuPercentage = cpuPercentage;
     }
 
+    public Boolean getFeedback() {
+        return feedback;
+    }
+
+    public void setFeedback(Boolean feedback) {
+        this.feedback = feedback;
+    }
+
     public DoubleConsumer getErrorHandler() {
         return errorHandler;
     }
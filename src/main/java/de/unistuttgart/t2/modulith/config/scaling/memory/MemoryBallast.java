@@ -0,0 +1,242 @@
+package de.unistuttgart.t2.modulith.config.scaling.memory;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the heap at a target ratio of the max heap by holding a ballast of large chunks, and optionally holds a
+ * ballast of direct buffers outside of the heap.
+ * <p>
+ * The ballast is adjusted by a background thread whenever a garbage collection finished or the target changed, never
+ * by request threads. The live heap without the ballast is taken from the heap usage after the last collection.
+ * Collections that started before the ballast last changed are ignored, as they do not know its current size. The
+ * ballast only grows or shrinks if it is off by more than the hysteresis, thus it does not oscillate with the real
+ * usage.
+ */
+final class MemoryBallast {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryBallast.class);
+
+    private final long maxHeap;
+    private final int chunkSize;
+    private final long hysteresis;
+    private final LongSupplier usedHeap;
+    private final LongSupplier uptime;
+
+    private final Deque<byte[]> heapChunks = new ArrayDeque<>();
+    private final Deque<ByteBuffer> offHeapChunks = new ArrayDeque<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-ballast");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** ratio of the max heap to use, 0 keeps the ballast as it is, negative values clear it */
+    private volatile double targetRatio;
+    private volatile long offHeapTarget;
+    private volatile long heapBallast;
+    private volatile long offHeapBallast;
+    /** used heap, including the ballast, after the last collection in bytes, negative if there was none yet */
+    private volatile long usedAfterGc = -1;
+    /** uptime of the JVM in milliseconds when the heap ballast changed last, max value while it changes */
+    private volatile long lastChange = -1;
+
+    /**
+     * @param maxHeap   max size of the heap in bytes
+     * @param chunkSize size of the chunks the ballast is made of in bytes
+     * @param usedHeap  supplies the currently used heap in bytes, until the first collection is reported
+     * @param uptime    supplies the uptime of the JVM in milliseconds
+     */
+    MemoryBallast(long maxHeap, int chunkSize, LongSupplier usedHeap, LongSupplier uptime) {
+        this.maxHeap = maxHeap;
+        this.chunkSize = chunkSize;
+        this.hysteresis = Math.max(2L * chunkSize, maxHeap / 50);
+        this.usedHeap = usedHeap;
+        this.uptime = uptime;
+    }
+
+    /**
+     * Creates a ballast for the heap of this JVM that is adjusted after every garbage collection. The chunks are 1/64
+     * of the max heap, but at least 1 MiB and at most 16 MiB.
+     */
+    static MemoryBallast forRuntime() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        int chunkSize = (int) Math.min(16 << 20, Math.max(1 << 20, maxHeap / 64));
+        MemoryBallast ballast = new MemoryBallast(maxHeap, chunkSize,
+            () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+            ManagementFactory.getRuntimeMXBean()::getUptime);
+
+        Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toSet());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener((notification, handback) -> {
+                    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                            .getGcInfo();
+                        long used = info.getMemoryUsageAfterGc().entrySet().stream()
+                            .filter(pool -> heapPools.contains(pool.getKey()))
+                            .mapToLong(pool -> pool.getValue().getUsed())
+                            .sum();
+                        ballast.collected(used, info.getStartTime());
+                    }
+                }, null, null);
+            }
+        }
+        return ballast;
+    }
+
+    /**
+     * Reports a finished garbage collection and adjusts the ballast to it, unless the collection started before the
+     * ballast changed last.
+     *
+     * @param usedAfterGc used heap after the collection in bytes
+     * @param startTime   uptime of the JVM in milliseconds when the collection started
+     */
+    void collected(long usedAfterGc, long startTime) {
+        if (startTime > lastChange) {
+            this.usedAfterGc = usedAfterGc;
+            adjustLater();
+        }
+    }
+
+    /**
+     * @param ratio ratio of the max heap to use, 0 keeps the ballast as it is, negative values clear it
+     */
+    void setTargetRatio(double ratio) {
+        targetRatio = ratio;
+        adjustLater();
+    }
+
+    /**
+     * @param bytes size of the ballast outside of the heap, 0 or less clears it
+     */
+    void setOffHeapTarget(long bytes) {
+        offHeapTarget = Math.max(0, bytes);
+        adjustLater();
+    }
+
+    double getTargetRatio() {
+        return targetRatio;
+    }
+
+    long getHeapBallast() {
+        return heapBallast;
+    }
+
+    long getOffHeapBallast() {
+        return offHeapBallast;
+    }
+
+    /**
+     * @return the used heap after the last garbage collection as ratio of the max heap
+     */
+    double getAchievedRatio() {
+        return (double) liveHeap() / maxHeap;
+    }
+
+    private long liveHeap() {
+        long used = usedAfterGc;
+        return used >= 0 ? used : usedHeap.getAsLong();
+    }
+
+    private void adjustLater() {
+        executor.execute(this::adjust);
+    }
+
+    /**
+     * Grows or shrinks the ballast to the targets. Called by the background thread only, except for tests.
+     */
+    synchronized void adjust() {
+        adjustHeap();
+        adjustOffHeap();
+    }
+
+    private void adjustHeap() {
+        double ratio = targetRatio;
+        int chunks = heapChunks.size();
+        if (ratio < 0) {
+            chunks = 0;
+        } else if (ratio > 0) {
+            long realUsage = Math.max(0, liveHeap() - heapBallast);
+            long wanted = Math.max(0, (long) (ratio * maxHeap) - realUsage);
+            if (wanted > heapBallast + hysteresis || wanted < heapBallast - hysteresis) {
+                chunks = (int) (wanted / chunkSize);
+            }
+        }
+        if (chunks == heapChunks.size()) {
+            return;
+        }
+
+        // collections during the change do not know the final size of the ballast
+        lastChange = Long.MAX_VALUE;
+        long before = heapBallast;
+        if (chunks > heapChunks.size()) {
+            allocate(chunks - heapChunks.size());
+        } else {
+            release(heapChunks.size() - chunks);
+        }
+        // the last collection did not see the change, so its result is estimated until the next one
+        long used = usedAfterGc;
+        if (used >= 0) {
+            usedAfterGc = Math.max(0, used + heapBallast - before);
+        }
+        lastChange = uptime.getAsLong();
+    }
+
+    private void allocate(int chunks) {
+        try {
+            for (int i = 0; i < chunks; i++) {
+                heapChunks.push(new byte[chunkSize]);
+                heapBallast += chunkSize;
+            }
+        } catch (OutOfMemoryError e) {
+            LOG.warn("Heap ballast stopped growing at {} bytes.", heapBallast);
+        }
+    }
+
+    private void release(int chunks) {
+        for (int i = 0; i < chunks && !heapChunks.isEmpty(); i++) {
+            heapChunks.pop();
+            heapBallast -= chunkSize;
+        }
+    }
+
+    /**
+     * The memory of released direct buffers is freed with the next garbage collection.
+     */
+    private void adjustOffHeap() {
+        long target = offHeapTarget;
+        try {
+            while (offHeapBallast + chunkSize <= target) {
+                offHeapChunks.push(ByteBuffer.allocateDirect(chunkSize));
+                offHeapBallast += chunkSize;
+            }
+        } catch (OutOfMemoryError e) {
+            LOG.warn("Off-heap ballast stopped growing at {} bytes.", offHeapBallast);
+        }
+        while (offHeapBallast > target && !offHeapChunks.isEmpty()) {
+            offHeapChunks.pop();
+            offHeapBallast -= chunkSize;
+        }
+    }
+}
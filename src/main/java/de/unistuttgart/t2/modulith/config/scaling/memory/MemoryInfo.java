@@ -12,14 +12,24 @@ public final class MemoryInfo {
 
     private final long used, free, total, max;
     private final double usedRatio;
+    private final long ballast, offHeapBallast;
+    private final double targetRatio, achievedRatio;
 
     public MemoryInfo() {
+        this(MemoryLeaker.ballast);
+    }
+
+    MemoryInfo(MemoryBallast memoryBallast) {
         Runtime runtime = Runtime.getRuntime();
         max = runtime.maxMemory();
         total = runtime.totalMemory();
         free = runtime.freeMemory();
         used = total - free;
         usedRatio = (double) used / total;
+        ballast = memoryBallast.getHeapBallast();
+        offHeapBallast = memoryBallast.getOffHeapBallast();
+        targetRatio = memoryBallast.getTargetRatio();
+        achievedRatio = memoryBallast.getAchievedRatio();
     }
 
     public long getUsed() {
@@ -42,9 +52,38 @@ public final class MemoryInfo {
         return usedRatio;
     }
 
+    /**
+     * @return the bytes the memory leak holds on the heap
+     */
+    public long getBallast() {
+        return ballast;
+    }
+
+    /**
+     * @return the bytes the memory leak holds outside of the heap
+     */
+    public long getOffHeapBallast() {
+        return offHeapBallast;
+    }
+
+    /**
+     * @return the ratio of the max heap the memory leak should fill up to
+     */
+    public double getTargetRatio() {
+        return targetRatio;
+    }
+
+    /**
+     * @return the ratio of the max heap that was used after the last garbage collection
+     */
+    public double getAchievedRatio() {
+        return achievedRatio;
+    }
+
     @Override
     public String toString() {
-        return String.format("MemoryInfo [used=%s, free=%s, total=%s, max=%s, usedRatio=%s]", used, free, total, max,
-            usedRatio);
+        return String.format("MemoryInfo [used=%s, free=%s, total=%s, max=%s, usedRatio=%s, ballast=%s, " +
+                "offHeapBallast=%s, targetRatio=%s, achievedRatio=%s]", used, free, total, max, usedRatio, ballast,
+            offHeapBallast, targetRatio, achievedRatio);
     }
 }
@@ -0,0 +1,159 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limit of the concurrent requests of one {@link RouteClass} that adapts to the observed latency.
+ * <p>
+ * The latency is averaged over windows of at least {@value #MIN_SAMPLES} requests and {@link #WINDOW} nanoseconds. The
+ * average of each window is compared to the long term latency, which stands for the latency without load. As long as
+ * it is within the tolerance, the limit grows by its square root, i.e. the requests that may queue. If the latency
+ * grows beyond the tolerance, the limit shrinks by the ratio of both latencies, at most to half of it. The limit does
+ * not grow while less than half of it is used.
+ * <p>
+ * It offers no setters because it is only intended to be serialized as a JSON object.
+ */
+public final class ConcurrencyLimit {
+
+    /** min duration of a window of samples, in nanoseconds */
+    static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+    static final int MIN_SAMPLES = 10;
+    /** weight of the latest window in the long term latency */
+    static final double LONG_TERM_WEIGHT = 0.01;
+    /** weight of the newly computed limit, older limits smooth out single slow windows */
+    static final double SMOOTHING = 0.2;
+    static final double MIN_GRADIENT = 0.5;
+
+    private final RouteClass route;
+    private final int minLimit, maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+
+    // current window and long term latency, guarded by this
+    private long windowStart;
+    private long windowLatency;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private double longTermLatency = -1;
+
+    /**
+     * @param route        the class of routes that is limited
+     * @param initialLimit the limit until the first window is complete
+     * @param minLimit     the limit never shrinks below this
+     * @param maxLimit     the limit never grows beyond this
+     * @param tolerance    the latency may grow by this factor of the long term latency before the limit shrinks
+     */
+    public ConcurrencyLimit(RouteClass route, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        assert 0 < minLimit && minLimit <= maxLimit && tolerance >= 1;
+        this.route = route;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    }
+
+    /**
+     * Starts a request, unless as many requests as the limit are in flight already.
+     *
+     * @return whether the request may start
+     */
+    boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= getLimit()) {
+                reject();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Counts a request that was rejected without trying to start it.
+     */
+    void reject() {
+        rejected.increment();
+    }
+
+    /**
+     * Finishes a request that was started by {@link #tryAcquire()} and adapts the limit to its latency.
+     *
+     * @param latency the latency of the request in nanoseconds
+     * @param now     {@link System#nanoTime()} when the request finished
+     */
+    void release(long latency, long now) {
+        int before = inFlight.getAndDecrement();
+        record(Math.max(1, latency), before, now);
+    }
+
+    /**
+     * Finishes a request that was started by {@link #tryAcquire()} without adapting the limit.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void record(long latency, int inFlight, long now) {
+        if (windowSamples == 0) {
+            windowStart = now;
+        }
+        windowLatency += latency;
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        if (windowSamples >= MIN_SAMPLES && now - windowStart >= WINDOW) {
+            update((double) windowLatency / windowSamples, windowMaxInFlight);
+            windowLatency = 0;
+            windowSamples = 0;
+            windowMaxInFlight = 0;
+        }
+    }
+
+    private void update(double latency, int maxInFlight) {
+        longTermLatency = longTermLatency < 0 ? latency
+            : (1 - LONG_TERM_WEIGHT) * longTermLatency + LONG_TERM_WEIGHT * latency;
+        // the load dropped, so forget the latency under load faster
+        if (longTermLatency > 2 * latency) {
+            longTermLatency *= 0.95;
+        }
+        if (maxInFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1, tolerance * longTermLatency / latency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.min(maxLimit, Math.max(minLimit, (1 - SMOOTHING) * limit + SMOOTHING * newLimit));
+    }
+
+    public RouteClass getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the max number of requests in flight
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of requests that were rejected because the limit was reached
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConcurrencyLimit [route=%s, limit=%s, inFlight=%s, rejected=%s]", route, getLimit(),
+            getInFlight(), getRejected());
+    }
+}
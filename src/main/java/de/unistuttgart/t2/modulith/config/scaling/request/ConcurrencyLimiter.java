@@ -0,0 +1,150 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Middleware that sheds requests with {@code 503} and a {@code Retry-After} header before the request threads and the
+ * connection pools of the databases saturate.
+ * <p>
+ * Each {@link RouteClass} has a {@link ConcurrencyLimit} of its own, such that slow confirmations do not starve the
+ * catalog. Routes without a class are not limited. Additionally, all requests can be blocked to deterministically
+ * trigger {@code SLO}s without having to shutdown the server.
+ * <p>
+ * The limits, the requests in flight and the rejected requests are exported as the gauges {@value #LIMIT} and
+ * {@value #IN_FLIGHT} and the counter {@value #REJECTED}, tagged with the route class.
+ */
+@Component
+public final class ConcurrencyLimiter implements AsyncHandlerInterceptor {
+
+    public static final String LIMIT = "t2.limiter.limit";
+    public static final String IN_FLIGHT = "t2.limiter.inflight";
+    public static final String REJECTED = "t2.limiter.rejected";
+
+    /** request attribute holding the limit the request was started by */
+    private static final String PERMIT = ConcurrencyLimiter.class.getName() + ".permit";
+    /** request attribute holding {@link System#nanoTime()} when the request was started */
+    private static final String START = ConcurrencyLimiter.class.getName() + ".start";
+
+    private final boolean enabled;
+    private final String retryAfter;
+    private final Map<RouteClass, ConcurrencyLimit> limits = new EnumMap<>(RouteClass.class);
+
+    private volatile boolean blockRoutes;
+
+    public ConcurrencyLimiter(@Value("${t2.limiter.enabled:false}") boolean enabled,
+                              @Value("${t2.limiter.initialLimit:20}") int initialLimit,
+                              @Value("${t2.limiter.minLimit:2}") int minLimit,
+                              @Value("${t2.limiter.catalog.maxLimit:100}") int catalogMaxLimit,
+                              @Value("${t2.limiter.cart.maxLimit:60}") int cartMaxLimit,
+                              @Value("${t2.limiter.confirm.maxLimit:40}") int confirmMaxLimit,
+                              @Value("${t2.limiter.tolerance:1.5}") double tolerance,
+                              @Value("${t2.limiter.retryAfter:1}") int retryAfter,
+                              ObjectProvider<MeterRegistry> meterRegistry) {
+        assert retryAfter >= 0;
+        this.enabled = enabled;
+        this.retryAfter = Integer.toString(retryAfter);
+        limits.put(RouteClass.CATALOG,
+            new ConcurrencyLimit(RouteClass.CATALOG, initialLimit, minLimit, catalogMaxLimit, tolerance));
+        limits.put(RouteClass.CART,
+            new ConcurrencyLimit(RouteClass.CART, initialLimit, minLimit, cartMaxLimit, tolerance));
+        limits.put(RouteClass.CONFIRM,
+            new ConcurrencyLimit(RouteClass.CONFIRM, initialLimit, minLimit, confirmMaxLimit, tolerance));
+
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        for (ConcurrencyLimit limit : limits.values()) {
+            String route = limit.getRoute().name().toLowerCase();
+            Gauge.builder(LIMIT, limit, ConcurrencyLimit::getLimit)
+                .description("Max number of requests in flight")
+                .tag("route", route)
+                .register(registry);
+            Gauge.builder(IN_FLIGHT, limit, ConcurrencyLimit::getInFlight)
+                .description("Requests in flight")
+                .tag("route", route)
+                .register(registry);
+            FunctionCounter.builder(REJECTED, limit, ConcurrencyLimit::getRejected)
+                .description("Requests that were shed because the limit was reached or all routes were blocked")
+                .tag("route", route)
+                .register(registry);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+                             Object handler) throws IOException {
+        if (request.getDispatcherType() == DispatcherType.ASYNC && request.getAttribute(PERMIT) != null) {
+            // still holds the permit of the initial dispatch
+            return true;
+        }
+        ConcurrencyLimit limit = limits.get(RouteClass.of(request.getRequestURI()
+            .substring(request.getContextPath().length())));
+        if (blockRoutes) {
+            if (limit != null) {
+                limit.reject();
+            }
+            return reject(response);
+        }
+        if (!enabled || limit == null) {
+            return true;
+        }
+        if (!limit.tryAcquire()) {
+            return reject(response);
+        }
+        request.setAttribute(PERMIT, limit);
+        request.setAttribute(START, System.nanoTime());
+        return true;
+    }
+
+    private boolean reject(HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(PERMIT) instanceof ConcurrencyLimit limit
+            && request.getAttribute(START) instanceof Long start) {
+            request.removeAttribute(PERMIT);
+            if (response.getStatus() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                // throttled by the session rate limit after the permit was taken, its latency says nothing
+                limit.release();
+            } else {
+                long now = System.nanoTime();
+                limit.release(now - start, now);
+            }
+        }
+    }
+
+    /**
+     * @param block whether all routes that are not about scaling are rejected
+     */
+    public void shouldBlockAllRoutes(boolean block) {
+        blockRoutes = block;
+    }
+
+    /**
+     * @return the limit of each route class
+     */
+    public Collection<ConcurrencyLimit> getLimits() {
+        return Collections.unmodifiableCollection(limits.values());
+    }
+}
@@ -0,0 +1,32 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+/**
+ * Classes of routes that get a concurrency limit of their own, as their latency differs by magnitudes.
+ */
+public enum RouteClass {
+
+    /** browsing the products */
+    CATALOG,
+    /** adding products to the cart, removing them, or showing the cart */
+    CART,
+    /** confirming an order */
+    CONFIRM;
+
+    /**
+     * @param path the path of a request, without the context path
+     * @return the class of the route, or null if the route is not limited
+     */
+    public static RouteClass of(String path) {
+        String route = path.startsWith("/ui") ? path.substring(3) : path;
+        if (route.isEmpty() || route.equals("/") || route.equals("/products") || route.startsWith("/products/")) {
+            return CATALOG;
+        }
+        if (route.startsWith("/cart") || route.equals("/add") || route.equals("/delete")) {
+            return CART;
+        }
+        if (route.equals("/confirm")) {
+            return CONFIRM;
+        }
+        return null;
+    }
+}
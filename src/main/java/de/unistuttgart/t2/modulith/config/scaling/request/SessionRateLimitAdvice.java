@@ -0,0 +1,56 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.lang.reflect.Type;
+
+/**
+ * Limits the requests of the {@link SessionRateLimiter} whose session is part of their body, e.g. the
+ * {@code sessionId} of an order to confirm, once the body was read.
+ * <p>
+ * The body is only expected to have a readable {@code sessionId} property, such that this does not depend on the
+ * modules that define the bodies.
+ */
+@ControllerAdvice
+public class SessionRateLimitAdvice extends RequestBodyAdviceAdapter {
+
+    static final String SESSION_ID = "sessionId";
+
+    private final SessionRateLimiter sessionRateLimiter;
+
+    public SessionRateLimitAdvice(@Autowired SessionRateLimiter sessionRateLimiter) {
+        this.sessionRateLimiter = sessionRateLimiter;
+    }
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType,
+                            Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                Class<? extends HttpMessageConverter<?>> converterType) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        Object deferred = attributes == null ? null
+            : attributes.getAttribute(SessionRateLimiter.DEFERRED, RequestAttributes.SCOPE_REQUEST);
+        if (deferred != null) {
+            BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(body);
+            if (wrapper.isReadableProperty(SESSION_ID)
+                && wrapper.getPropertyValue(SESSION_ID) instanceof String session && !session.isEmpty()) {
+                attributes.removeAttribute(SessionRateLimiter.DEFERRED, RequestAttributes.SCOPE_REQUEST);
+                sessionRateLimiter.limitDeferred(deferred, session);
+            }
+        }
+        return body;
+    }
+}
@@ -0,0 +1,195 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.ErrorResponseException;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Middleware that limits how often each session may change its cart or confirm an order, such that a few clients can
+ * not flood the inventory with reservations. Requests above the rate get {@code 429} and a {@code Retry-After} header.
+ * <p>
+ * Each session has a {@link TokenBucket} per {@link RouteClass}. The session is taken from the path for
+ * {@code /cart/{sessionId}} and from the HTTP session for the UI. Otherwise, e.g. for {@code /confirm} which has the
+ * session in its body, the request is limited by the {@link SessionRateLimitAdvice} once the body was read. Requests
+ * without any session are not limited.
+ * <p>
+ * The buckets are kept for at most {@code maxSessions} sessions per route class. Full buckets are equal to new ones,
+ * thus they are dropped once that many sessions are known. If there are still too many, the buckets of arbitrary
+ * sessions are dropped, which lets these sessions start with a full bucket again.
+ * <p>
+ * Throttled requests are counted by {@value #THROTTLED}, tagged with the route class. A request takes a token on its
+ * initial dispatch only, the async dispatch of e.g. a confirmation that already started is never throttled.
+ */
+@Component
+public final class SessionRateLimiter implements AsyncHandlerInterceptor {
+
+    public static final String THROTTLED = "t2.ratelimit.throttled";
+
+    /** request attribute holding the rate of a request whose session is only known once the body was read */
+    static final String DEFERRED = SessionRateLimiter.class.getName() + ".deferred";
+
+    private final boolean enabled;
+    private final int maxSessions;
+    private final Map<RouteClass, Rate> rates = new EnumMap<>(RouteClass.class);
+
+    public SessionRateLimiter(@Value("${t2.ratelimit.enabled:false}") boolean enabled,
+                              @Value("${t2.ratelimit.maxSessions:100000}") int maxSessions,
+                              @Value("${t2.ratelimit.cart.rate:10}") double cartRate,
+                              @Value("${t2.ratelimit.cart.burst:20}") int cartBurst,
+                              @Value("${t2.ratelimit.confirm.rate:1}") double confirmRate,
+                              @Value("${t2.ratelimit.confirm.burst:3}") int confirmBurst,
+                              ObjectProvider<MeterRegistry> meterRegistry) {
+        assert maxSessions > 0;
+        this.enabled = enabled;
+        this.maxSessions = maxSessions;
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        if (cartRate > 0) {
+            rates.put(RouteClass.CART, new Rate(RouteClass.CART, cartRate, cartBurst, registry));
+        }
+        if (confirmRate > 0) {
+            rates.put(RouteClass.CONFIRM, new Rate(RouteClass.CONFIRM, confirmRate, confirmBurst, registry));
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+                             Object handler) throws IOException {
+        if (!enabled || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Rate rate = rates.get(RouteClass.of(path));
+        if (rate == null) {
+            return true;
+        }
+        String session = session(request, path);
+        if (session == null) {
+            request.setAttribute(DEFERRED, rate);
+            return true;
+        }
+        long wait = rate.tryTake(session, System.nanoTime());
+        if (wait == 0) {
+            return true;
+        }
+        rate.throttled.increment();
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter(wait));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        return false;
+    }
+
+    /**
+     * Limits a request whose session is only known once its body was read.
+     *
+     * @param deferred the value of the request attribute {@link #DEFERRED}
+     * @param session  the id of the session read from the body
+     * @throws ErrorResponseException (429) with a {@code Retry-After} header if the session sent too many requests
+     */
+    void limitDeferred(Object deferred, String session) {
+        if (!(deferred instanceof Rate rate)) {
+            return;
+        }
+        long wait = rate.tryTake(session, System.nanoTime());
+        if (wait > 0) {
+            rate.throttled.increment();
+            ErrorResponseException exception = new ErrorResponseException(HttpStatus.TOO_MANY_REQUESTS);
+            exception.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfter(wait));
+            throw exception;
+        }
+    }
+
+    /**
+     * @param wait time in nanoseconds until the next token is available
+     * @return the value of the {@code Retry-After} header, in seconds rounded up
+     */
+    private static String retryAfter(long wait) {
+        return Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1)));
+    }
+
+    /**
+     * @return the number of sessions whose bucket is kept for the given route class
+     */
+    int sessions(RouteClass route) {
+        Rate rate = rates.get(route);
+        return rate == null ? 0 : rate.buckets.size();
+    }
+
+    /**
+     * @return the id of the session that sent the request, or null if it is not part of the path or the HTTP session
+     */
+    static String session(HttpServletRequest request, String path) {
+        if (path.startsWith("/cart/") && path.length() > "/cart/".length()) {
+            return path.substring("/cart/".length());
+        }
+        HttpSession session = request.getSession(false);
+        return session != null ? session.getId() : null;
+    }
+
+    /**
+     * Allowed rate of one route class and the buckets of the sessions.
+     */
+    private final class Rate {
+
+        final long interval;
+        final long tolerance;
+        final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        final Counter throttled;
+
+        /**
+         * @param perSecond requests per second
+         * @param burst     requests that may be sent at once
+         */
+        Rate(RouteClass route, double perSecond, int burst, MeterRegistry registry) {
+            this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+            this.tolerance = Math.max(0, burst - 1) * interval;
+            this.throttled = Counter.builder(THROTTLED)
+                .description("Requests that were rejected because their session sent too many")
+                .tag("route", route.name().toLowerCase())
+                .register(registry);
+        }
+
+        long tryTake(String session, long now) {
+            TokenBucket bucket = buckets.get(session);
+            if (bucket == null) {
+                if (buckets.size() >= maxSessions) {
+                    evict(now);
+                }
+                TokenBucket created = new TokenBucket(now);
+                bucket = buckets.putIfAbsent(session, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            return bucket.tryTake(now, interval, tolerance);
+        }
+
+        /**
+         * Drops all full buckets, and arbitrary buckets until there is room for a tenth of the max sessions.
+         */
+        private void evict(long now) {
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+            Iterator<TokenBucket> iterator = buckets.values().iterator();
+            while (buckets.size() > maxSessions - maxSessions / 10 - 1 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket that refills one token per interval, up to the burst.
+ * <p>
+ * Instead of the tokens, the bucket keeps the time at which it would be full again, i.e. the theoretical arrival time
+ * of the generic cell rate algorithm. Taking a token advances that time by one interval, and is only allowed if the
+ * time lies less than the burst ahead. Thus, the bucket is a single {@link AtomicLong} that is updated by compare and
+ * set.
+ */
+final class TokenBucket {
+
+    /** {@link System#nanoTime()} at which the bucket is full again */
+    private final AtomicLong fullAt;
+
+    /**
+     * @param now {@link System#nanoTime()}, the bucket starts full
+     */
+    TokenBucket(long now) {
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Takes one token, if there is one.
+     *
+     * @param now       {@link System#nanoTime()}
+     * @param interval  time in nanoseconds that refills one token
+     * @param tolerance time in nanoseconds the bucket may be ahead, i.e. {@code (burst - 1) * interval}
+     * @return 0 if a token was taken, otherwise the time in nanoseconds until the next token is available
+     */
+    long tryTake(long now, long interval, long tolerance) {
+        long current, next;
+        do {
+            current = fullAt.get();
+            next = Math.max(current, now) + interval;
+            if (next - now > tolerance + interval) {
+                return next - now - tolerance - interval;
+            }
+        } while (!fullAt.compareAndSet(current, next));
+        return 0;
+    }
+
+    /**
+     * @param now {@link System#nanoTime()}
+     * @return whether the bucket is full, i.e. forgetting it does not change anything
+     */
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
@@ -1,4 +1,5 @@
 /**
- * Manages whether (all non-scaling) requests should be blocked.
+ * Manages how many requests are in flight at once, how often each session may send requests, and whether (all
+ * non-scaling) requests should be blocked.
  */
 package de.unistuttgart.t2.modulith.config.scaling.request;
@@ -3,21 +3,28 @@ package de.unistuttgart.t2.modulith.inventory;
 import de.unistuttgart.t2.modulith.inventory.repository.InventoryItem;
 import de.unistuttgart.t2.modulith.inventory.repository.InventoryProductMapper;
 import de.unistuttgart.t2.modulith.inventory.repository.InventoryRepository;
+import de.unistuttgart.t2.modulith.inventory.repository.InventoryRepository.AvailableUnits;
+import de.unistuttgart.t2.modulith.inventory.repository.InventoryRepository.ItemPrice;
+import de.unistuttgart.t2.modulith.inventory.repository.ProductCache;
+import de.unistuttgart.t2.modulith.inventory.repository.Reservation;
 import de.unistuttgart.t2.modulith.inventory.repository.ReservationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Manages the inventory and the reservations.
  * <p>
  * Reservations are distinguished by their session ids.
+ * <p>
+ * Products are read through the {@link ProductCache}. Every operation that changes the available units of a product
+ * invalidates the cached units of that product.
  *
  * @author maumau
  * @author davidkopp
@@ -29,18 +36,34 @@ public class InventoryService {
 
     private final InventoryRepository inventoryRepository;
 
-    public InventoryService(@Autowired InventoryRepository inventoryRepository) {
+    private final ReservationRepository reservationRepository;
+
+    private final ProductCache productCache;
+
+    @Autowired
+    public InventoryService(InventoryRepository inventoryRepository,
+                            ReservationRepository reservationRepository,
+                            ProductCache productCache) {
         this.inventoryRepository = inventoryRepository;
+        this.reservationRepository = reservationRepository;
+        this.productCache = productCache;
+    }
+
+    public InventoryService(InventoryRepository inventoryRepository, ReservationRepository reservationRepository) {
+        this(inventoryRepository, reservationRepository, ProductCache.disabled());
     }
 
     /**
      * Get a list of all products from the inventory.
+     * <p>
+     * Does not start a transaction of its own, such that products served from the cache do not occupy a database
+     * connection.
      *
      * @return a list of all products in the inventory.
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<Product> getAllProducts() {
-        List<InventoryItem> inventoryItems = inventoryRepository.findAll();
-        return inventoryItems.stream().map(InventoryProductMapper::toProduct).toList();
+        return productCache.getAll(inventoryRepository::findAllProducts, this::getAvailableUnits);
     }
 
     /**
@@ -52,9 +75,9 @@ public class InventoryService {
      * @param productId id of the product to be retrieved
      * @return product with given id if it exists
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<Product> getSingleProduct(String productId) {
-        Optional<InventoryItem> inventoryItem = inventoryRepository.findById(productId);
-        return InventoryProductMapper.toProduct(inventoryItem);
+        return productCache.get(productId, inventoryRepository::findProductById);
     }
 
     /**
@@ -66,22 +89,103 @@ public class InventoryService {
      * @param productIds collection of product ids to be retrieved
      * @return products if product ids exists
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<Product> getProducts(Collection<String> productIds) {
-        List<InventoryItem> inventoryItems = inventoryRepository.findAllById(productIds);
-        return inventoryItems.stream().map(InventoryProductMapper::toProduct).toList();
+        return productCache.getAll(productIds, inventoryRepository::findProductsByIdIn);
+    }
+
+    /**
+     * Get the prices of the products with the given productIds, e.g. to calculate the total of an order.
+     * <p>
+     * Only the prices are selected, neither the available units are calculated nor any reservations are loaded. Ids of
+     * products that do not exist are missing in the result.
+     *
+     * @param productIds ids of the products
+     * @return the price of each existing product by its id
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Double> getPrices(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return Map.of();
+        }
+        return productCache.getPrices(productIds, ids -> inventoryRepository.findPricesByIdIn(ids).stream()
+            .collect(Collectors.toMap(ItemPrice::getId, ItemPrice::getPrice)));
+    }
+
+    private Map<String, Integer> getAvailableUnits(Collection<String> productIds) {
+        return inventoryRepository.findAvailableUnitsByIdIn(productIds).stream()
+            .collect(Collectors.toMap(AvailableUnits::getId, AvailableUnits::getUnits));
     }
 
     /**
      * commit reservations associated with given sessionId.
+     * <p>
+     * Only the items reserved by the session are touched: the units in stock are decreased and the reservations are
+     * deleted with one bulk statement each.
      *
      * @param sessionId to identify the reservations to delete
      */
     public void commitReservations(String sessionId) {
-        List<InventoryItem> items = inventoryRepository.findAll();
-        for (InventoryItem item : items) {
-            item.commitReservation(sessionId);
+        invalidateReservedProducts(sessionId);
+        inventoryRepository.commitReservationsOf(sessionId);
+        reservationRepository.deleteByUserId(sessionId);
+    }
+
+    /**
+     * commit the reservations held for the given order, by the units of the order.
+     * <p>
+     * The ordered units of each item are committed from the reservation held for the order. If the session reserved
+     * more units in the meantime, the remaining units stay reserved and may expire again. The items are locked before
+     * the reservations are read, such that concurrent reservations of the session can not change them. Reservations
+     * that are no longer held for the order are not committed again, thus committing an order twice is a no-op.
+     *
+     * @param orderId identifies the order, c.f. {@link #holdReservations(String, String, Collection)}
+     * @param units   ordered units per product id
+     */
+    public void commitReservations(String orderId, Map<String, Integer> units) {
+        List<String> itemIds = reservationRepository.findItemIdsByOrderId(orderId);
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        productCache.invalidateUnits(itemIds);
+        Map<String, InventoryItem> items = inventoryRepository.findAllByIdForUpdate(itemIds).stream()
+            .collect(Collectors.toMap(InventoryItem::getId, item -> item));
+
+        for (Reservation reservation : reservationRepository.findByOrderId(orderId)) {
+            String itemId = reservation.item.getId();
+            int committed = Math.min(reservation.getUnits(), units.getOrDefault(itemId, 0));
+            items.get(itemId).commitReservedUnits(committed);
+            if (committed == reservation.getUnits()) {
+                reservationRepository.delete(reservation);
+            } else {
+                reservation.commitUnits(committed);
+            }
         }
-        inventoryRepository.saveAll(items);
+        inventoryRepository.flush();
+    }
+
+    /**
+     * hold the reservations of the given session for the given products for an order, such that they do not expire
+     * until the order is committed or the hold is cancelled.
+     *
+     * @param sessionId  identifies the session that placed the order
+     * @param orderId    identifies the order
+     * @param productIds ids of the ordered products
+     */
+    public void holdReservations(String sessionId, String orderId, Collection<String> productIds) {
+        if (!productIds.isEmpty()) {
+            reservationRepository.holdForOrder(sessionId, productIds, orderId);
+        }
+    }
+
+    /**
+     * cancel the hold of the reservations held for an order that was not paid. the reservations are kept, such that
+     * the order can be repeated, but may expire again.
+     *
+     * @param orderId identifies the order
+     */
+    public void cancelHold(String orderId) {
+        reservationRepository.cancelHold(orderId);
     }
 
     /**
@@ -90,15 +194,26 @@ public class InventoryService {
      * @param sessionId to identify which reservations to delete
      */
     public void deleteReservations(String sessionId) {
-        List<InventoryItem> items = inventoryRepository.findAll();
-        for (InventoryItem item : items) {
-            item.deleteReservation(sessionId);
+        invalidateReservedProducts(sessionId);
+        inventoryRepository.releaseReservationsOf(sessionId);
+        reservationRepository.deleteByUserId(sessionId);
+    }
+
+    private void invalidateReservedProducts(String sessionId) {
+        if (productCache.isEnabled()) {
+            productCache.invalidateUnits(reservationRepository.findItemIdsByUserId(sessionId));
         }
-        inventoryRepository.saveAll(items);
     }
 
     /**
      * attach a reservation for the given session to the given item.
+     * <p>
+     * The units are reserved with a conditional update of the item, i.e. concurrent reservations of the same item can
+     * never reserve more units than available. The update locks the item row until the transaction ends, thus the
+     * following increase or creation of the reservation of the session is serialized with all other reservations of the
+     * item, and concurrent first reservations of a session can not create two reservations. The unique constraint on
+     * item and session makes a transaction fail rather than create a second reservation, should the lock ever be
+     * bypassed.
      *
      * @param sessionId user to reserve for
      * @param productId products to reserve of
@@ -113,11 +228,85 @@ public class InventoryService {
             throw new IllegalArgumentException(
                 "productId : " + productId + ", sessionId : " + sessionId + ", units : " + units);
         }
-        InventoryItem item = inventoryRepository.findById(productId).orElseThrow(
-            () -> new NoSuchElementException(String.format("product with id %s not found", productId)));
+        if (units == 0) {
+            return findProduct(productId);
+        }
+
+        // locks the item row until the end of the transaction
+        if (inventoryRepository.reserveUnits(productId, units) == 0) {
+            throw new InsufficientUnitsAvailableException(productId, units, findProduct(productId).getUnits());
+        }
+        if (reservationRepository.addUnits(productId, sessionId, units, Date.from(Instant.now())) == 0) {
+            reservationRepository.saveAndFlush(new Reservation(units, sessionId, inventoryRepository.getReferenceById(productId)));
+        }
+        productCache.invalidateUnits(List.of(productId));
+
+        return findProduct(productId);
+    }
+
+    /**
+     * attach reservations of the given session to all the given items at once.
+     * <p>
+     * Either all reservations are made or none. All items are loaded and locked with a single query, the reservations
+     * of the session with another one, and all changes are written with a single flush. Concurrent single reservations
+     * of the same items wait for the lock.
+     *
+     * @param sessionId user to reserve for
+     * @param units     amount to reserve per product id
+     * @return the items where the reservations were attached, in the order of the given map
+     * @throws NoSuchElementException              if any product does not exist
+     * @throws IllegalArgumentException            if any parameter is null or any amount is negative
+     * @throws InsufficientUnitsAvailableException if not enough units are available for any product
+     */
+    @Transactional(rollbackFor = InsufficientUnitsAvailableException.class)
+    public List<Product> makeReservations(String sessionId, Map<String, Integer> units)
+        throws NoSuchElementException, InsufficientUnitsAvailableException {
+        if (sessionId == null || units == null || units.values().stream().anyMatch(u -> u == null || u < 0)) {
+            throw new IllegalArgumentException("sessionId : " + sessionId + ", units : " + units);
+        }
+        Map<String, Integer> requested = new LinkedHashMap<>();
+        units.forEach((productId, u) -> {
+            if (u > 0) {
+                requested.put(productId, u);
+            }
+        });
+        if (requested.isEmpty()) {
+            return List.of();
+        }
 
-        item.addReservation(sessionId, units);
-        InventoryItem savedItem = inventoryRepository.save(item);
-        return InventoryProductMapper.toProduct(savedItem);
+        Map<String, InventoryItem> items = inventoryRepository.findAllByIdForUpdate(requested.keySet()).stream()
+            .collect(Collectors.toMap(InventoryItem::getId, item -> item));
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            InventoryItem item = items.get(entry.getKey());
+            if (item == null) {
+                throw new NoSuchElementException(String.format("product with id %s not found", entry.getKey()));
+            }
+            if (item.getAvailableUnits() < entry.getValue()) {
+                throw new InsufficientUnitsAvailableException(item.getId(), entry.getValue(), item.getAvailableUnits());
+            }
+        }
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            items.get(entry.getKey()).increaseReservedUnits(entry.getValue());
+        }
+
+        List<Reservation> reservations = reservationRepository.findByUserIdAndItemIdIn(sessionId, requested.keySet());
+        for (Reservation reservation : reservations) {
+            reservation.updateUnits(requested.get(reservation.item.getId()));
+        }
+        Set<String> reserved = reservations.stream().map(r -> r.item.getId()).collect(Collectors.toSet());
+        requested.forEach((productId, u) -> {
+            if (!reserved.contains(productId)) {
+                reservationRepository.save(new Reservation(u, sessionId, items.get(productId)));
+            }
+        });
+        inventoryRepository.flush();
+        productCache.invalidateUnits(requested.keySet());
+
+        return requested.keySet().stream().map(items::get).map(InventoryProductMapper::toProduct).toList();
+    }
+
+    private Product findProduct(String productId) {
+        return inventoryRepository.findProductById(productId).orElseThrow(
+            () -> new NoSuchElementException(String.format("product with id %s not found", productId)));
     }
 }
@@ -5,15 +5,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 /**
  * Generates new products into the inventory repository or restocks existing ones. Generation is always triggered after
  * initialisation.
+ * <p>
+ * Products are generated in chunks of {@code chunkSize} products. Each chunk is inserted in a transaction of its own,
+ * with JDBC batch inserts if {@code hibernate.jdbc.batch_size} is set, and is released afterwards. Thus, catalogs of
+ * millions of products can be generated without holding them in memory. Beyond the predefined product names,
+ * synthetic names are derived from them.
+ * <p>
+ * Restocks are set-based as well: the products are restocked in chunks of {@code chunkSize} products, each with a
+ * single update statement in a transaction of its own. No product is loaded and each row is locked for the duration of
+ * its chunk only.
  *
  * @author maumau
  */
@@ -23,76 +35,148 @@ public class DataGenerator {
     private final Logger LOG = LoggerFactory.getLogger(getClass());
 
     private final InventoryRepository repository;
-    private int inventorySize;
+    private final TransactionTemplate transactionTemplate;
+    private final int inventorySize;
     private final boolean setUnitsToMax;
+    private final int chunkSize;
     private final Random random = new Random(5);
+    private ProductCache productCache = ProductCache.disabled();
 
-    public DataGenerator(@Autowired InventoryRepository repository,
+    /**
+     * @param transactionManager manages the transaction of each restocked chunk
+     * @param inventorySize      number of products the inventory shall contain
+     * @param setUnitsToMax      whether all products are available {@link Integer#MAX_VALUE} times
+     * @param chunkSize          max number of products inserted or restocked per transaction
+     */
+    @Autowired
+    public DataGenerator(InventoryRepository repository,
+                         PlatformTransactionManager transactionManager,
                          @Value("${t2.inventory.size:0}") int inventorySize,
-                         @Value("${t2.inventory.setUnitsToMax:false}") boolean setUnitsToMax) {
-        assert (repository != null);
+                         @Value("${t2.inventory.setUnitsToMax:false}") boolean setUnitsToMax,
+                         @Value("${t2.inventory.generationChunkSize:10000}") int chunkSize) {
+        assert (repository != null && transactionManager != null && chunkSize > 0);
         this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.inventorySize = inventorySize;
         this.setUnitsToMax = setUnitsToMax;
+        this.chunkSize = chunkSize;
+    }
+
+    public DataGenerator(InventoryRepository repository, PlatformTransactionManager transactionManager,
+                         int inventorySize, boolean setUnitsToMax) {
+        this(repository, transactionManager, inventorySize, setUnitsToMax, 10000);
+    }
+
+    @Autowired
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
     }
 
     /**
-     * Generates products into the inventory repository.
+     * Generates products into the inventory repository, until it contains {@code inventorySize} products.
      */
     @PostConstruct
     public void generateProducts() {
-        if (inventorySize > PRODUCT_NAMES.length) {
-            LOG.info("Inventory size is configured to be {}, but only {} products are available.", inventorySize, PRODUCT_NAMES.length);
-            inventorySize = PRODUCT_NAMES.length;
-        }
-
-        if (repository.count() >= inventorySize) {
-            LOG.info("Repository already contains {} entries. Not adding new entries.", repository.count());
+        long existing = repository.count();
+        if (existing >= inventorySize) {
+            LOG.info("Repository already contains {} entries. Not adding new entries.", existing);
             return;
         }
 
-        LOG.info("Repository too small. Generate {} new entries.", inventorySize);
+        LOG.info("Repository too small. Generate {} new entries.", inventorySize - existing);
         if (setUnitsToMax) {
             LOG.info("Option 'setUnitsToMax' is enabled. All items will be available {} times.", Integer.MAX_VALUE);
         }
 
-        for (int i = (int) repository.count(); i < inventorySize; i++) {
-            String name = PRODUCT_NAMES[i];
-            int units;
-            if (!setUnitsToMax) {
-                units = random.nextInt(500) + 42;
-            } else {
-                units = Integer.MAX_VALUE;
+        long start = System.nanoTime();
+        List<InventoryItem> chunk = new ArrayList<>(Math.min(chunkSize, inventorySize));
+        for (int i = (int) existing; i < inventorySize; i++) {
+            chunk.add(generateProduct(i));
+            if (chunk.size() == chunkSize || i == inventorySize - 1) {
+                // saveAll runs in a transaction of its own, after which the chunk is no longer managed
+                repository.saveAll(chunk);
+                chunk.clear();
+                LOG.debug("Generated {} of {} entries.", i + 1, inventorySize);
             }
-            double price = random.nextInt(10) + random.nextDouble();
-            String description = "very nice " + PRODUCT_NAMES[i] + " tea";
+        }
+        productCache.invalidateAll();
 
-            InventoryItem product = new InventoryItem(null, name, description, units, price);
+        long generated = inventorySize - existing;
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        LOG.info("Generated {} entries in {} ms ({} entries/s).", generated, Math.round(seconds * 1000),
+            Math.round(generated / seconds));
+    }
 
-            repository.save(product);
+    /**
+     * Generate the i-th product. The first products get the predefined names, the following ones synthetic names that
+     * combine a predefined name with a number, e.g. "Earl Grey (2)".
+     */
+    private InventoryItem generateProduct(int i) {
+        String baseName = PRODUCT_NAMES[i % PRODUCT_NAMES.length];
+        int round = i / PRODUCT_NAMES.length;
+        String name = round == 0 ? baseName : String.format("%s (%d)", baseName, round + 1);
+        int units;
+        if (!setUnitsToMax) {
+            units = random.nextInt(500) + 42;
+        } else {
+            units = Integer.MAX_VALUE;
         }
+        double price = random.nextInt(10) + random.nextDouble();
+        String description = "very nice " + baseName + " tea";
+
+        return new InventoryItem(null, name, description, units, price);
     }
 
     /**
      * Restock products in the repository. at some point all products will be sold out. thus there must be an option to
      * restock them.
+     * <p>
+     * The units in stock of each product are raised to a random number between 42 and 541, or to
+     * {@link Integer#MAX_VALUE} if {@code setUnitsToMax} is enabled. Products that already have more units keep them.
+     * The chunks are found by the order of the ids, such that no chunk has to skip the rows of the previous ones.
+     *
+     * @return number of restocked products and duration of the restock
      */
-    @Transactional
-    public void restockProducts() {
-        List<InventoryItem> items = repository.findAll();
+    public RestockResult restockProducts() {
+        int min = setUnitsToMax ? Integer.MAX_VALUE : 42;
+        int range = setUnitsToMax ? 0 : 500;
 
-        for (InventoryItem item : items) {
-            int units;
-            if (!setUnitsToMax) {
-                units = random.nextInt(500) + 42;
-            } else {
-                units = Integer.MAX_VALUE;
+        long start = System.nanoTime();
+        long restocked = 0;
+        int chunks = 0;
+        String lastId = "";
+        List<String> ids;
+        do {
+            ids = repository.findIdsAfter(lastId, PageRequest.ofSize(chunkSize));
+            if (!ids.isEmpty()) {
+                List<String> chunk = ids;
+                Integer updated = transactionTemplate.execute(status -> repository.restockUnits(chunk, min, range));
+                restocked += updated == null ? 0 : updated;
+                chunks++;
+                lastId = ids.get(ids.size() - 1);
+                LOG.debug("Restocked {} products.", restocked);
             }
-            item.setUnits(units);
-        }
+        } while (ids.size() == chunkSize);
+        productCache.invalidateAllUnits();
+
+        RestockResult result = new RestockResult(restocked, chunks, Math.max(System.nanoTime() - start, 1) / 1_000_000);
+        LOG.info("Restocked {} products in {} chunks in {} ms ({} products/s).", result.restockedProducts(),
+            result.chunks(), result.durationMillis(), result.productsPerSecond());
+        return result;
+    }
 
-        repository.saveAll(items);
-        LOG.info("Restocked all products.");
+    /**
+     * Outcome of a restock.
+     *
+     * @param restockedProducts number of restocked products
+     * @param chunks            number of transactions the products were restocked in
+     * @param durationMillis    duration of the restock in milliseconds
+     */
+    public record RestockResult(long restockedProducts, int chunks, long durationMillis) {
+
+        public long productsPerSecond() {
+            return Math.round(restockedProducts * 1000.0 / Math.max(durationMillis, 1));
+        }
     }
 
     // Predefined products from original tea store and some more generated with ChatGPT
@@ -5,9 +5,11 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import de.unistuttgart.t2.modulith.inventory.InsufficientUnitsAvailableException;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.UuidGenerator;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -15,6 +17,12 @@ import java.util.List;
  * well as the number of units in stock. If a user placed units of product in their cart, that product has some
  * reservations attached. The actual number of unit in stock shall only ever be changed by committing reservations (c.f.
  * {@link InventoryItem#commitReservation(String)}})
+ * <p>
+ * The sum of all reserved units is kept in {@code reservedUnits}, such that the available units can be calculated
+ * without loading the reservations.
+ * <p>
+ * Items are versioned. Concurrent modifications of the same item through the entity fail instead of overwriting each
+ * other, the bulk statements of {@link InventoryRepository} increase the version as well.
  *
  * @author maumau
  */
@@ -47,7 +55,22 @@ public class InventoryItem {
     @JsonProperty("price")
     private final double price;
 
-    @OneToMany(mappedBy = "item", cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true)
+    /**
+     * sum of the units of all reservations. updated by every operation that adds, commits or deletes reservations.
+     * backfilled from the reservations of databases created without it, c.f. {@link ReservedUnitsBackfill}.
+     */
+    @Column(name = "reserved_units", nullable = false)
+    @ColumnDefault("0")
+    @JsonProperty("reservedUnits")
+    private int reservedUnits;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    @ColumnDefault("0")
+    @JsonIgnore
+    private long version;
+
+    @OneToMany(mappedBy = "item", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
     @JsonProperty("reservations")
     private final List<Reservation> reservations;
 
@@ -71,6 +94,7 @@ public class InventoryItem {
         this.units = units;
         this.price = price;
         this.reservations = new ArrayList<>(reservations);
+        this.reservedUnits = reservations.stream().mapToInt(Reservation::getUnits).sum();
     }
 
     public String getId() {
@@ -108,6 +132,10 @@ public class InventoryItem {
         return reservations;
     }
 
+    public int getReservedUnits() {
+        return reservedUnits;
+    }
+
     @Override
     public String toString() {
         return id + ", " + name + ", " + description + ", " + units + ", " + price;
@@ -133,7 +161,7 @@ public class InventoryItem {
      */
     @JsonIgnore
     public int getAvailableUnits() {
-        int availableUnits = units - reservations.stream().mapToInt(Reservation::getUnits).sum();
+        int availableUnits = units - reservedUnits;
         if (availableUnits < 0) {
             throw new IllegalStateException(
                 String.format("%d units reserved, even though only %d are in stock", units - availableUnits, units));
@@ -157,6 +185,7 @@ public class InventoryItem {
         if (unitsToReserve == 0) {
             return;
         }
+        reservedUnits += unitsToReserve;
         for (Reservation reservation : reservations) {
             if (reservation.getUserId().equals(sessionId)) {
                 reservation.updateUnits(unitsToReserve);
@@ -166,6 +195,20 @@ public class InventoryItem {
         reservations.add(new Reservation(unitsToReserve, sessionId, this));
     }
 
+    /**
+     * Increase the reserved units without touching the list of reservations. For callers that persist the reservation
+     * themselves, such that the reservations of this item need not be loaded.
+     *
+     * @param unitsToReserve number of units to reserve
+     * @throws InsufficientUnitsAvailableException if not enough units available
+     */
+    public void increaseReservedUnits(int unitsToReserve) throws InsufficientUnitsAvailableException {
+        if (unitsToReserve > getAvailableUnits() || unitsToReserve < 0) {
+            throw new InsufficientUnitsAvailableException(id, unitsToReserve, getAvailableUnits());
+        }
+        reservedUnits += unitsToReserve;
+    }
+
     /**
      * remove a reservation and decrease units in stock. always use this operation to decrease the number of unit in
      * stock.
@@ -176,13 +219,37 @@ public class InventoryItem {
         for (Reservation reservation : reservations) {
             if (reservation.getUserId().equals(sessionId)) {
                 units -= reservation.getUnits();
+                reservedUnits -= reservation.getUnits();
                 reservations.remove(reservation);
                 return;
             }
         }
     }
 
+    /**
+     * decrease the units in stock and the reserved units by units of a reservation that are committed. for callers
+     * that update or delete the reservation themselves, such that the reservations of this item need not be loaded.
+     *
+     * @param committed number of committed units
+     */
+    public void commitReservedUnits(int committed) {
+        units -= committed;
+        reservedUnits -= committed;
+    }
+
+    /**
+     * remove the reservation of the given session without changing the units in stock.
+     *
+     * @param sessionId to identify the reservation to be deleted
+     */
     public void deleteReservation(String sessionId) {
-        reservations.removeIf(reservation -> reservation.getUserId().equals(sessionId));
+        Iterator<Reservation> iterator = reservations.iterator();
+        while (iterator.hasNext()) {
+            Reservation reservation = iterator.next();
+            if (reservation.getUserId().equals(sessionId)) {
+                reservedUnits -= reservation.getUnits();
+                iterator.remove();
+            }
+        }
     }
 }
@@ -1,6 +1,200 @@
 package de.unistuttgart.t2.modulith.inventory.repository;
 
+import de.unistuttgart.t2.modulith.inventory.Product;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 
 public interface InventoryRepository extends JpaRepository<InventoryItem, String> {
+
+    /**
+     * Selects the products directly as DTOs. The available units are calculated by the database, thus neither the
+     * entities nor their reservations are loaded.
+     */
+    String PRODUCT_PROJECTION = "select new de.unistuttgart.t2.modulith.inventory.Product("
+        + "i.id, i.name, i.description, i.units - i.reservedUnits, i.price) from InventoryItem i";
+
+    @Query(PRODUCT_PROJECTION)
+    List<Product> findAllProducts();
+
+    @Query(PRODUCT_PROJECTION + " where i.id = :id")
+    Optional<Product> findProductById(@Param("id") String id);
+
+    @Query(PRODUCT_PROJECTION + " where i.id in :ids")
+    List<Product> findProductsByIdIn(@Param("ids") Collection<String> ids);
+
+    /**
+     * Select only the available units of the given items.
+     *
+     * @param ids ids of the items
+     * @return id and available units of each existing item
+     */
+    @Query("select i.id as id, i.units - i.reservedUnits as units from InventoryItem i where i.id in :ids")
+    List<AvailableUnits> findAvailableUnitsByIdIn(@Param("ids") Collection<String> ids);
+
+    /**
+     * Select only the prices of the given items.
+     *
+     * @param ids ids of the items
+     * @return id and price of each existing item
+     */
+    @Query("select i.id as id, i.price as price from InventoryItem i where i.id in :ids")
+    List<ItemPrice> findPricesByIdIn(@Param("ids") Collection<String> ids);
+
+    /**
+     * Select the ids of the items following the given id, in the order of their ids. To be used to walk through all
+     * items in chunks.
+     *
+     * @param after id after which the ids are selected, the empty string to start with the first item
+     * @param page  max number of ids to select
+     * @return the ids, ordered ascending
+     */
+    @Query("select i.id from InventoryItem i where i.id > :after order by i.id")
+    List<String> findIdsAfter(@Param("after") String after, Pageable page);
+
+    /**
+     * Raise the units in stock of the given items to a random number in {@code [min, min + range)} that is computed by
+     * the database for each item, with a single bulk statement. Like {@link InventoryItem#setUnits(int)}, this never
+     * lowers the units of an item, nor does it set them to less than its reserved units.
+     *
+     * @param ids   ids of the items
+     * @param min   min number of units
+     * @param range number of possible values above min, 0 to set all items to min
+     * @return number of updated items
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(nativeQuery = true, value = "update inventory_item set "
+        + "units = greatest(units, reserved_units, cast(floor(random() * :range) as integer) + :min), "
+        + "version = version + 1 "
+        + "where id in :ids")
+    int restockUnits(@Param("ids") Collection<String> ids, @Param("min") int min, @Param("range") int range);
+
+    /**
+     * Get an item together with its reservations in a single query. To be used by operations that change the
+     * reservations.
+     *
+     * @param id id of the item
+     * @return the item with initialized reservations, if it exists
+     */
+    @EntityGraph(attributePaths = "reservations")
+    Optional<InventoryItem> findWithReservationsById(String id);
+
+    /**
+     * Get the given items and lock them for the rest of the transaction. The items are locked in the order of their
+     * ids, such that two transactions locking overlapping sets of items can not deadlock.
+     *
+     * @param ids ids of the items
+     * @return the existing items, without their reservations
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select i from InventoryItem i where i.id in :ids order by i.id")
+    List<InventoryItem> findAllByIdForUpdate(@Param("ids") Collection<String> ids);
+
+    /**
+     * Decrease the units in stock and the reserved units of all items the given session reserved by the reserved
+     * units, with a single bulk statement. Only the items that actually have a reservation of the session are touched.
+     * The reservations themselves are not deleted.
+     *
+     * @param userId identifies the session whose reservations are committed
+     * @return number of updated items
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update InventoryItem i set "
+        + "i.units = i.units - (select sum(r.units) from Reservation r where r.item = i and r.userId = :userId), "
+        + "i.reservedUnits = i.reservedUnits - (select sum(r.units) from Reservation r where r.item = i and r.userId = :userId), "
+        + "i.version = i.version + 1 "
+        + "where exists (select r.id from Reservation r where r.item = i and r.userId = :userId)")
+    int commitReservationsOf(@Param("userId") String userId);
+
+    /**
+     * Decrease the reserved units of all items the given session reserved by the reserved units, with a single bulk
+     * statement. The reservations themselves are not deleted.
+     *
+     * @param userId identifies the session whose reservations are released
+     * @return number of updated items
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update InventoryItem i set "
+        + "i.reservedUnits = i.reservedUnits - (select sum(r.units) from Reservation r where r.item = i and r.userId = :userId), "
+        + "i.version = i.version + 1 "
+        + "where exists (select r.id from Reservation r where r.item = i and r.userId = :userId)")
+    int releaseReservationsOf(@Param("userId") String userId);
+
+    /**
+     * Decrease the reserved units of all items by the units of the given reservations, with a single bulk statement.
+     * Reservations that were renewed after {@code latestDateAlive} or are held for an order are skipped. The
+     * reservations themselves are not deleted.
+     *
+     * @param ids             ids of the expired reservations
+     * @param latestDateAlive reservations created before this date are expired
+     * @return number of updated items
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update InventoryItem i set "
+        + "i.reservedUnits = i.reservedUnits - (select sum(r.units) from Reservation r "
+        + "where r.item = i and r.id in :ids and r.creationDate < :latestDateAlive and r.orderId is null), "
+        + "i.version = i.version + 1 "
+        + "where exists (select r.id from Reservation r "
+        + "where r.item = i and r.id in :ids and r.creationDate < :latestDateAlive and r.orderId is null)")
+    int releaseExpiredReservations(@Param("ids") Collection<Integer> ids,
+                                   @Param("latestDateAlive") Date latestDateAlive);
+
+    /**
+     * Set the reserved units of all items that have reservations but no reserved units to the sum of their
+     * reservations, with a single bulk statement. Such items stem from databases created before the reserved units were
+     * kept, as every reservation made since increases the reserved units in the same transaction. Items updated
+     * concurrently by a reservation are skipped, thus the statement is safe to run while the shop is in use.
+     *
+     * @return number of updated items
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update InventoryItem i set "
+        + "i.reservedUnits = (select sum(r.units) from Reservation r where r.item = i), "
+        + "i.version = i.version + 1 "
+        + "where i.reservedUnits = 0 and exists (select r.id from Reservation r where r.item = i and r.units > 0)")
+    int backfillReservedUnits();
+
+    /**
+     * Increase the reserved units of the given item, if and only if enough units are available. The check and the
+     * update are a single statement, thus concurrent reservations of the same item can not oversell it and do not need
+     * to lock the item beyond the update itself.
+     *
+     * @param id    id of the item
+     * @param units number of units to reserve
+     * @return 1 if the units were reserved, 0 if the item does not exist or has not enough units available
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update InventoryItem i set i.reservedUnits = i.reservedUnits + :units, i.version = i.version + 1 "
+        + "where i.id = :id and i.units - i.reservedUnits >= :units")
+    int reserveUnits(@Param("id") String id, @Param("units") int units);
+
+    /**
+     * Projection on the available units of an item.
+     */
+    interface AvailableUnits {
+
+        String getId();
+
+        int getUnits();
+    }
+
+    /**
+     * Projection on the price of an item.
+     */
+    interface ItemPrice {
+
+        String getId();
+
+        double getPrice();
+    }
 }
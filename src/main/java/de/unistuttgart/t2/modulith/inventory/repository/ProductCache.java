@@ -0,0 +1,432 @@
+package de.unistuttgart.t2.modulith.inventory.repository;
+
+import de.unistuttgart.t2.modulith.inventory.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache of the product catalog.
+ * <p>
+ * The cache consists of two layers. Name, description and price of a product only change if new products are
+ * generated, thus they are kept until the whole cache is invalidated. The available units change with every
+ * reservation, they are kept in an overlay that is invalidated whenever the reservations of a product change and that
+ * expires after a short TTL. The list of all products expires after a longer TTL. The TTLs bound the staleness caused
+ * by other instances of the application that share the same database.
+ * <p>
+ * Every invalidation advances a stamp and records it for the invalidated products. The units of a product read from
+ * the database are not stored if the product was invalidated after the read started, such that a read racing with a
+ * reservation can not put outdated units into the cache. Invalidations of other products do not affect the read. The
+ * invalidations are recorded in a fixed number of stripes, thus an invalidation only rarely discards the units of an
+ * unrelated product.
+ * <p>
+ * A catalog with more products than the cache holds is not cached, as it would only evict itself.
+ * <p>
+ * The cache always hands out copies, callers may modify the returned products.
+ */
+@Component
+public class ProductCache {
+
+    private static final int STRIPES = 1024;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long unitsTtlNanos;
+    private final long catalogTtlNanos;
+
+    private final Map<String, Product> attributes = new ConcurrentHashMap<>();
+    private final Map<String, Units> units = new ConcurrentHashMap<>();
+    /** ids of all products in the order of the last full load, null if unknown */
+    private volatile Catalog catalog;
+    /** advanced by every invalidation */
+    private final AtomicLong stamp = new AtomicLong();
+    /** stamp of the last invalidation of the units of any product per stripe of product ids */
+    private final AtomicLongArray unitsInvalidated = new AtomicLongArray(STRIPES);
+    /** stamp of the last invalidation of the units of all products */
+    private final AtomicLong allUnitsInvalidated = new AtomicLong();
+    /** stamp of the last invalidation of the whole cache */
+    private final AtomicLong allInvalidated = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    /**
+     * Create cache.
+     *
+     * @param enabled       whether products are cached at all
+     * @param maxSize       maximum number of cached products, a larger catalog is not cached
+     * @param unitsTtl      time in milliseconds the available units of a product are served from the cache
+     * @param catalogTtl    time in milliseconds the list of all products is served from the cache
+     * @param meterRegistry registry for the hit, miss and eviction counters, the global registry is used if absent
+     */
+    @Autowired
+    public ProductCache(@Value("${t2.inventory.cache.enabled:true}") boolean enabled,
+                        @Value("${t2.inventory.cache.maxSize:10000}") int maxSize,
+                        @Value("${t2.inventory.cache.unitsTTL:1000}") long unitsTtl,
+                        @Value("${t2.inventory.cache.catalogTTL:60000}") long catalogTtl,
+                        ObjectProvider<MeterRegistry> meterRegistry) {
+        this(enabled, maxSize, unitsTtl, catalogTtl, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    public ProductCache(boolean enabled, int maxSize, long unitsTtl, long catalogTtl, MeterRegistry meterRegistry) {
+        assert maxSize >= 0 && unitsTtl >= 0 && catalogTtl >= 0 && meterRegistry != null;
+        this.enabled = enabled && maxSize > 0;
+        this.maxSize = maxSize;
+        this.unitsTtlNanos = TimeUnit.MILLISECONDS.toNanos(unitsTtl);
+        this.catalogTtlNanos = TimeUnit.MILLISECONDS.toNanos(catalogTtl);
+
+        this.hits = Counter.builder("t2.inventory.cache.gets").tag("result", "hit")
+            .description("Products served from the product cache").register(meterRegistry);
+        this.misses = Counter.builder("t2.inventory.cache.gets").tag("result", "miss")
+            .description("Products that had to be loaded from the database").register(meterRegistry);
+        this.evictions = Counter.builder("t2.inventory.cache.evictions")
+            .description("Products evicted because the product cache was full").register(meterRegistry);
+    }
+
+    /**
+     * @return a cache that never holds any product, i.e. every request goes to the loaders
+     */
+    public static ProductCache disabled() {
+        return new ProductCache(false, 0, 0, 0, Metrics.globalRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get all products.
+     * <p>
+     * If the catalog is cached, but the units of some products are outdated, only the units of those products are
+     * reloaded.
+     *
+     * @param catalogLoader loads all products
+     * @param unitsLoader   loads the available units of the products with the given ids
+     * @return all products
+     */
+    public List<Product> getAll(Supplier<List<Product>> catalogLoader,
+                                Function<Collection<String>, Map<String, Integer>> unitsLoader) {
+        if (!enabled) {
+            return catalogLoader.get();
+        }
+        long loadStamp = stamp.get();
+        Catalog cached = catalog;
+        if (cached != null && System.nanoTime() - cached.loadedAt() < catalogTtlNanos) {
+            List<Product> products = fromCatalog(cached.ids(), unitsLoader, loadStamp);
+            if (products != null) {
+                return products;
+            }
+        }
+
+        List<Product> products = catalogLoader.get();
+        misses.increment(products.size());
+        if (products.size() > maxSize) {
+            return products;
+        }
+        putAll(products, loadStamp);
+        if (allInvalidated.get() <= loadStamp) {
+            catalog = new Catalog(products.stream().map(Product::getId).toList(), System.nanoTime());
+        }
+        return products;
+    }
+
+    /**
+     * Assemble all products from the cached catalog.
+     *
+     * @return the products, or null if the cached attributes are incomplete
+     */
+    private List<Product> fromCatalog(List<String> ids, Function<Collection<String>, Map<String, Integer>> unitsLoader,
+                                      long loadStamp) {
+        List<Product> products = new ArrayList<>(ids.size());
+        List<Product> outdated = new ArrayList<>();
+        for (String id : ids) {
+            Product cached = attributes.get(id);
+            if (cached == null) {
+                return null;
+            }
+            Product product = copy(cached, 0);
+            Units u = units.get(id);
+            if (isFresh(u)) {
+                product.setUnits(u.available());
+            } else {
+                outdated.add(product);
+            }
+            products.add(product);
+        }
+
+        hits.increment(products.size() - outdated.size());
+        if (outdated.isEmpty()) {
+            return products;
+        }
+        misses.increment(outdated.size());
+        Map<String, Integer> loaded = unitsLoader.apply(outdated.stream().map(Product::getId).toList());
+        for (Product product : outdated) {
+            Integer available = loaded.get(product.getId());
+            if (available == null) {
+                // product vanished, the catalog is outdated
+                return null;
+            }
+            product.setUnits(available);
+        }
+        putUnits(loaded, loadStamp);
+        return products;
+    }
+
+    /**
+     * Get a single product.
+     *
+     * @param productId id of the product
+     * @param loader    loads the product from the database
+     * @return the product, if it exists
+     */
+    public Optional<Product> get(String productId, Function<String, Optional<Product>> loader) {
+        if (!enabled) {
+            return loader.apply(productId);
+        }
+        Product cached = lookup(productId);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        long loadStamp = stamp.get();
+        Optional<Product> product = loader.apply(productId);
+        product.ifPresent(p -> putAll(List.of(p), loadStamp));
+        return product;
+    }
+
+    /**
+     * Get the products with the given ids. Only the products that are not cached are loaded.
+     *
+     * @param productIds ids of the products
+     * @param loader     loads the products with the given ids from the database
+     * @return the existing products
+     */
+    public List<Product> getAll(Collection<String> productIds, Function<Collection<String>, List<Product>> loader) {
+        if (!enabled) {
+            return loader.apply(productIds);
+        }
+        List<Product> products = new ArrayList<>(productIds.size());
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : new LinkedHashSet<>(productIds)) {
+            Product cached = lookup(id);
+            if (cached != null) {
+                products.add(cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        hits.increment(products.size());
+        if (missing.isEmpty()) {
+            return products;
+        }
+        misses.increment(missing.size());
+        long loadStamp = stamp.get();
+        List<Product> loaded = loader.apply(missing);
+        putAll(loaded, loadStamp);
+        products.addAll(loaded);
+        return products;
+    }
+
+    /**
+     * Get the prices of the products with the given ids. Prices are served from the cache even if the available units
+     * of a product are outdated, only the prices of products that are not cached at all are loaded.
+     *
+     * @param productIds ids of the products
+     * @param loader     loads the prices of the products with the given ids from the database
+     * @return the price of each existing product
+     */
+    public Map<String, Double> getPrices(Collection<String> productIds,
+                                         Function<Collection<String>, Map<String, Double>> loader) {
+        if (!enabled) {
+            return loader.apply(productIds);
+        }
+        Map<String, Double> prices = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : productIds) {
+            Product cached = attributes.get(id);
+            if (cached != null) {
+                prices.put(id, cached.getPrice());
+            } else {
+                missing.add(id);
+            }
+        }
+        hits.increment(prices.size());
+        if (!missing.isEmpty()) {
+            misses.increment(missing.size());
+            prices.putAll(loader.apply(missing));
+        }
+        return prices;
+    }
+
+    /**
+     * Invalidate the available units of the given products. If called within a transaction, the units are invalidated
+     * once more after the commit, such that no reader can cache the state from before the commit.
+     *
+     * @param productIds ids of the products whose reservations changed
+     */
+    public void invalidateUnits(Collection<String> productIds) {
+        if (!enabled || productIds.isEmpty()) {
+            return;
+        }
+        Runnable invalidation = () -> {
+            long invalidatedAt = stamp.incrementAndGet();
+            for (String id : productIds) {
+                unitsInvalidated.accumulateAndGet(stripe(id), invalidatedAt, Math::max);
+                units.remove(id);
+            }
+        };
+        runNowAndAfterCommit(invalidation);
+    }
+
+    /**
+     * Invalidate the available units of all products, e.g. after a restock.
+     */
+    public void invalidateAllUnits() {
+        if (!enabled) {
+            return;
+        }
+        runNowAndAfterCommit(() -> {
+            allUnitsInvalidated.accumulateAndGet(stamp.incrementAndGet(), Math::max);
+            units.clear();
+        });
+    }
+
+    /**
+     * Invalidate the whole cache, e.g. after new products were generated.
+     */
+    public void invalidateAll() {
+        if (!enabled) {
+            return;
+        }
+        runNowAndAfterCommit(() -> {
+            long invalidatedAt = stamp.incrementAndGet();
+            allUnitsInvalidated.accumulateAndGet(invalidatedAt, Math::max);
+            allInvalidated.accumulateAndGet(invalidatedAt, Math::max);
+            catalog = null;
+            attributes.clear();
+            units.clear();
+        });
+    }
+
+    private void runNowAndAfterCommit(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    private Product lookup(String productId) {
+        Product cached = attributes.get(productId);
+        Units u = units.get(productId);
+        if (cached == null || !isFresh(u)) {
+            return null;
+        }
+        return copy(cached, u.available());
+    }
+
+    private boolean isFresh(Units u) {
+        return u != null && System.nanoTime() - u.loadedAt() < unitsTtlNanos;
+    }
+
+    private void putAll(List<Product> products, long loadStamp) {
+        if (allInvalidated.get() > loadStamp) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Product product : products) {
+            if (attributes.put(product.getId(), copy(product, 0)) == null) {
+                evictIfFull(product.getId());
+            }
+            if (isValid(product.getId(), loadStamp)) {
+                units.put(product.getId(), new Units(product.getUnits(), now));
+            }
+        }
+        discardIfInvalidated(products.stream().map(Product::getId).toList(), loadStamp);
+    }
+
+    private void putUnits(Map<String, Integer> available, long loadStamp) {
+        long now = System.nanoTime();
+        available.forEach((id, u) -> {
+            if (attributes.containsKey(id) && isValid(id, loadStamp)) {
+                units.put(id, new Units(u, now));
+            }
+        });
+        discardIfInvalidated(available.keySet(), loadStamp);
+    }
+
+    /**
+     * @return whether the units of the product were not invalidated since the given stamp
+     */
+    private boolean isValid(String productId, long loadStamp) {
+        return allUnitsInvalidated.get() <= loadStamp && unitsInvalidated.get(stripe(productId)) <= loadStamp;
+    }
+
+    /**
+     * An invalidation may have happened while the loaded values were put into the cache. Those values must not stay.
+     */
+    private void discardIfInvalidated(Collection<String> productIds, long loadStamp) {
+        boolean all = allInvalidated.get() > loadStamp;
+        for (String id : productIds) {
+            if (all) {
+                attributes.remove(id);
+            }
+            if (!isValid(id, loadStamp)) {
+                units.remove(id);
+            }
+        }
+    }
+
+    private static int stripe(String productId) {
+        return Math.floorMod(productId.hashCode(), STRIPES);
+    }
+
+    private void evictIfFull(String keep) {
+        Iterator<String> candidates = attributes.keySet().iterator();
+        while (attributes.size() > maxSize && candidates.hasNext()) {
+            String id = candidates.next();
+            if (!id.equals(keep)) {
+                catalog = null;
+                attributes.remove(id);
+                units.remove(id);
+                evictions.increment();
+            }
+        }
+    }
+
+    private static Product copy(Product product, int units) {
+        return new Product(product.getId(), product.getName(), product.getDescription(), units, product.getPrice());
+    }
+
+    /**
+     * Ids of all products and the time they were loaded at.
+     */
+    private record Catalog(List<String> ids, long loadedAt) {
+    }
+
+    /**
+     * Available units of a product and the time they were loaded at.
+     */
+    private record Units(int available, long loadedAt) {
+    }
+}
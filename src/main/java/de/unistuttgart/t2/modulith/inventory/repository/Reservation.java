@@ -9,11 +9,17 @@ import java.util.Date;
  * A Reservation of a certain number of units.
  * <p>
  * Reservations have a {@code creationDate} such that they might be killed after they exceeded their time to life.
+ * Reservations held for a paid order that is not yet committed never expire, they are marked with the id of the order.
+ * <p>
+ * A session has at most one reservation per item, which is guaranteed by a unique constraint.
  *
  * @author maumau
  */
 @Entity
-@Table(name = "reservations")
+@Table(name = "reservations", indexes = {
+    @Index(name = "idx_reservations_user_id", columnList = "userId"),
+    @Index(name = "idx_reservations_created_on", columnList = "created_on")
+}, uniqueConstraints = @UniqueConstraint(name = "uk_reservations_item_user", columnNames = {"item_id", "userId"}))
 public class Reservation {
 
     @Id
@@ -30,6 +36,10 @@ public class Reservation {
     @Column(name = "userId")
     private final String userId;
 
+    /** id of the order the reservation is held for, null if not held */
+    @Column(name = "order_id")
+    private String orderId;
+
     @ManyToOne(fetch = FetchType.LAZY)
     public InventoryItem item;
 
@@ -61,6 +71,21 @@ public class Reservation {
         return units;
     }
 
+    public String getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * decrease number of units by the units committed for the order the reservation is held for, and end the hold.
+     * the remaining units may expire again.
+     *
+     * @param committed units committed for the order
+     */
+    public void commitUnits(int committed) {
+        this.units = units - committed;
+        this.orderId = null;
+    }
+
     /**
      * increase number of units by 'update' and also renew the creation date.
      *
@@ -94,6 +119,6 @@ public class Reservation {
     @Override
     public String toString() {
         return "Reservation [id=" + id + ", creationDate=" + creationDate + ", units=" + units + ", userId=" + userId
-            + ", item=" + item + "]";
+            + ", orderId=" + orderId + ", item=" + item + "]";
     }
 }
@@ -1,7 +1,152 @@
 package de.unistuttgart.t2.modulith.inventory.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 
 public interface ReservationRepository extends JpaRepository<Reservation, Integer> {
 
+    /**
+     * Get the ids of all items that the given session has reserved units of.
+     *
+     * @param userId identifies the session
+     * @return ids of the reserved items
+     */
+    @Query("select distinct r.item.id from Reservation r where r.userId = :userId")
+    List<String> findItemIdsByUserId(@Param("userId") String userId);
+
+    /**
+     * Get the reservations of the given session for the given items.
+     *
+     * @param userId  identifies the session
+     * @param itemIds ids of the reserved items
+     * @return the reservations
+     */
+    @Query("select r from Reservation r where r.userId = :userId and r.item.id in :itemIds")
+    List<Reservation> findByUserIdAndItemIdIn(@Param("userId") String userId,
+                                              @Param("itemIds") Collection<String> itemIds);
+
+    /**
+     * Add units to the existing reservation of the given session for the given item and renew its creation date.
+     *
+     * @param itemId id of the reserved item
+     * @param userId identifies the session
+     * @param units  additionally reserved units
+     * @param now    new creation date of the reservation
+     * @return number of updated reservations, 0 if the session has not reserved the item yet
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reservation r set r.units = r.units + :units, r.creationDate = :now "
+        + "where r.item.id = :itemId and r.userId = :userId")
+    int addUnits(@Param("itemId") String itemId, @Param("userId") String userId, @Param("units") int units,
+                 @Param("now") Date now);
+
+    /**
+     * Hold the reservations of the given session for the given items for an order, such that they do not expire
+     * before the order is committed.
+     *
+     * @param userId  identifies the session
+     * @param itemIds ids of the ordered items
+     * @param orderId identifies the order
+     * @return number of held reservations
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reservation r set r.orderId = :orderId where r.userId = :userId and r.item.id in :itemIds")
+    int holdForOrder(@Param("userId") String userId, @Param("itemIds") Collection<String> itemIds,
+                     @Param("orderId") String orderId);
+
+    /**
+     * End the hold of the reservations held for the given order, such that they may expire again.
+     *
+     * @param orderId identifies the order
+     * @return number of released reservations
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reservation r set r.orderId = null where r.orderId = :orderId")
+    int cancelHold(@Param("orderId") String orderId);
+
+    /**
+     * Get the ids of all items that have reservations held for the given order.
+     *
+     * @param orderId identifies the order
+     * @return ids of the reserved items
+     */
+    @Query("select distinct r.item.id from Reservation r where r.orderId = :orderId")
+    List<String> findItemIdsByOrderId(@Param("orderId") String orderId);
+
+    /**
+     * Get the reservations held for the given order.
+     *
+     * @param orderId identifies the order
+     * @return the reservations
+     */
+    List<Reservation> findByOrderId(String orderId);
+
+    /**
+     * Delete all reservations of the given session with a single bulk statement.
+     *
+     * @param userId identifies the session whose reservations are deleted
+     * @return number of deleted reservations
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Reservation r where r.userId = :userId")
+    int deleteByUserId(@Param("userId") String userId);
+
+    /**
+     * Count the reservations created at or after the given date. Uses the index on the creation date, thus the costs
+     * depend on the number of these reservations only.
+     *
+     * @param latestDateAlive reservations created before this date are not counted
+     * @return number of reservations created since the date
+     */
+    @Query("select count(r) from Reservation r where r.creationDate >= :latestDateAlive")
+    long countCreatedSince(@Param("latestDateAlive") Date latestDateAlive);
+
+    /**
+     * Count the reservations created before the given date that are held for an order. Uses the index on the creation
+     * date, such that only expired reservations are scanned, which the collector keeps few.
+     *
+     * @param latestDateAlive reservations created at or after this date are not counted
+     * @return number of held reservations created before the date
+     */
+    @Query("select count(r) from Reservation r where r.creationDate < :latestDateAlive and r.orderId is not null")
+    long countHeldCreatedBefore(@Param("latestDateAlive") Date latestDateAlive);
+
+    /**
+     * Get the ids of the oldest reservations created before the given date that are not held for an order. Uses the
+     * index on the creation date, thus the costs depend on the number of expired reservations only.
+     *
+     * @param latestDateAlive reservations created before this date are expired
+     * @param page            limits the number of returned ids
+     * @return ids of expired reservations, oldest first
+     */
+    @Query("select r.id from Reservation r where r.creationDate < :latestDateAlive and r.orderId is null "
+        + "order by r.creationDate")
+    List<Integer> findIdsCreatedBefore(@Param("latestDateAlive") Date latestDateAlive, Pageable page);
+
+    /**
+     * Get the ids of all items that the given reservations belong to.
+     *
+     * @param ids ids of the reservations
+     * @return ids of the reserved items
+     */
+    @Query("select distinct r.item.id from Reservation r where r.id in :ids")
+    List<String> findItemIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Delete the given reservations with a single bulk statement, if they are still expired and not held for an order.
+     *
+     * @param ids             ids of the reservations
+     * @param latestDateAlive reservations renewed after this date are kept
+     * @return number of deleted reservations
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Reservation r where r.id in :ids and r.creationDate < :latestDateAlive and r.orderId is null")
+    int deleteExpired(@Param("ids") Collection<Integer> ids, @Param("latestDateAlive") Date latestDateAlive);
 }
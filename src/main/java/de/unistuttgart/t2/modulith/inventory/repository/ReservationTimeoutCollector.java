@@ -1,22 +1,39 @@
 package de.unistuttgart.t2.modulith.inventory.repository;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * Periodically checks all reservations and deletes those whose time to life has been exceeded.<br>
+ * Periodically deletes the reservations whose time to life has been exceeded.
+ * <p>
+ * Expired reservations are found with a range query on the indexed creation date and removed in pages of at most
+ * {@code pageSize} reservations. Each page is removed in a transaction of its own, consisting of one bulk statement that
+ * releases the reserved units at the items and one that deletes the reservations. Thus, the costs of a cleanup depend
+ * on the number of expired reservations only, not on the total number of reservations.
+ * <p>
+ * Reservations held for a paid order never expire, as the order commits them asynchronously.
+ * <p>
+ * The number of open reservations, i.e. those that are neither committed nor expired, is exposed as gauge. It is
+ * counted with range queries on the creation date as well, thus a scrape does not count all reservations.
  *
  * @author maumau
  */
@@ -29,31 +46,70 @@ public class ReservationTimeoutCollector {
     private final long TTL;
     /** in milliseconds */
     private final int taskRate;
+    /** max number of reservations removed per transaction */
+    private final int pageSize;
 
     private final ReservationRepository repository;
     private final InventoryRepository itemRepository;
-    private final ThreadPoolTaskScheduler taskScheduler;
+    private final TaskScheduler taskScheduler;
+    private final TransactionTemplate transactionTemplate;
+    private ProductCache productCache = ProductCache.disabled();
+
+    private final Timer cleanupTimer;
+    private final Counter removedReservations;
 
     /**
      * Create collector.
      *
-     * @param TTL            the cart entries' time to live in seconds
-     * @param taskRate       rate at which the collector checks the repo in milliseconds
-     * @param taskScheduler  the scheduler to use for this collector
-     * @param repository     the repository that handles the reservation data
-     * @param itemRepository the repository that handles the item data
+     * @param TTL                the reservations' time to live in seconds
+     * @param taskRate           rate at which the collector checks the repo in milliseconds
+     * @param pageSize           max number of reservations removed per transaction
+     * @param taskScheduler      the scheduler to use for this collector
+     * @param repository         the repository that handles the reservation data
+     * @param itemRepository     the repository that handles the item data
+     * @param transactionManager manages the transaction of each page
+     * @param meterRegistry      registry for the cleanup metrics, the global registry is used if absent
      */
+    @Autowired
     public ReservationTimeoutCollector(@Value("${t2.inventory.TTL:0}") final long TTL,
                                        @Value("${t2.inventory.taskRate:0}") final int taskRate,
-                                       @Autowired final ThreadPoolTaskScheduler taskScheduler,
-                                       @Autowired final ReservationRepository repository,
-                                       @Autowired final InventoryRepository itemRepository) {
-        assert TTL >= 0 && taskRate >= 0 && taskScheduler != null && repository != null && itemRepository != null;
+                                       @Value("${t2.inventory.cleanupPageSize:500}") final int pageSize,
+                                       final TaskScheduler taskScheduler,
+                                       final ReservationRepository repository,
+                                       final InventoryRepository itemRepository,
+                                       final PlatformTransactionManager transactionManager,
+                                       final ObjectProvider<MeterRegistry> meterRegistry) {
+        this(TTL, taskRate, pageSize, taskScheduler, repository, itemRepository, transactionManager,
+            meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    public ReservationTimeoutCollector(final long TTL, final int taskRate, final int pageSize,
+                                       final TaskScheduler taskScheduler,
+                                       final ReservationRepository repository,
+                                       final InventoryRepository itemRepository,
+                                       final PlatformTransactionManager transactionManager,
+                                       final MeterRegistry meterRegistry) {
+        assert TTL >= 0 && taskRate >= 0 && pageSize > 0 && taskScheduler != null && repository != null
+            && itemRepository != null && transactionManager != null && meterRegistry != null;
         this.TTL = TTL;
         this.taskRate = taskRate;
+        this.pageSize = pageSize;
         this.taskScheduler = taskScheduler;
         this.repository = repository;
         this.itemRepository = itemRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        this.cleanupTimer = Timer.builder("t2.inventory.reservations.cleanup")
+            .description("Duration of the removal of expired reservations").register(meterRegistry);
+        this.removedReservations = Counter.builder("t2.inventory.reservations.expired")
+            .description("Expired reservations removed by the collector").register(meterRegistry);
+        Gauge.builder("t2.inventory.reservations.open", this, ReservationTimeoutCollector::countOpenReservations)
+            .description("Reservations that are neither committed nor expired").register(meterRegistry);
+    }
+
+    @Autowired
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
     }
 
     /**
@@ -72,24 +128,52 @@ public class ReservationTimeoutCollector {
      * The actual cleanup.
      */
     public void cleanup() {
-        List<Reservation> items = repository.findAll();
         Date latestDateAlive = Date.from(Instant.now().minusSeconds(TTL));
+        Timer.Sample sample = Timer.start();
 
-        Collection<Reservation> expiredReservations =
-            items.stream().filter(r -> r.getCreationDate().before(latestDateAlive)).collect(Collectors.toSet());
-
-        LOG.info("Found {} expired reservations", expiredReservations.size());
+        int removed = 0;
+        List<Integer> expired;
+        do {
+            expired = repository.findIdsCreatedBefore(latestDateAlive, PageRequest.ofSize(pageSize));
+            if (!expired.isEmpty()) {
+                removed += removePage(expired, latestDateAlive);
+            }
+        } while (expired.size() == pageSize);
 
-        deleteAtItems(expiredReservations);
-        repository.deleteAll(expiredReservations);
+        long duration = sample.stop(cleanupTimer);
+        removedReservations.increment(removed);
+        LOG.info("Removed {} expired reservations in {} ms", removed, Duration.ofNanos(duration).toMillis());
     }
 
-    public void deleteAtItems(Collection<Reservation> rs) {
-        for (Reservation r : rs) {
+    /**
+     * Count the reservations that are neither committed nor expired. These are the reservations within their TTL and
+     * those held for an order, which never expire.
+     *
+     * @return number of open reservations
+     */
+    public long countOpenReservations() {
+        Date latestDateAlive = Date.from(Instant.now().minusSeconds(TTL));
+        return repository.countCreatedSince(latestDateAlive) + repository.countHeldCreatedBefore(latestDateAlive);
+    }
 
-            InventoryItem i = itemRepository.findById(r.item.getId()).get();
-            i.deleteReservation(r.getUserId());
-            itemRepository.save(i);
-        }
+    /**
+     * Release the units of the given reservations at their items and delete the reservations.
+     * <p>
+     * The items are updated before the reservations are deleted, which is the same order {@code makeReservation} locks
+     * them in. A reservation that got renewed or held for an order in the meantime is neither released nor deleted.
+     *
+     * @param ids             ids of the expired reservations
+     * @param latestDateAlive reservations created before this date are expired
+     * @return number of deleted reservations
+     */
+    private int removePage(List<Integer> ids, Date latestDateAlive) {
+        Integer removed = transactionTemplate.execute(status -> {
+            List<String> itemIds = repository.findItemIdsByIdIn(ids);
+            itemRepository.releaseExpiredReservations(ids, latestDateAlive);
+            int deleted = repository.deleteExpired(ids, latestDateAlive);
+            productCache.invalidateUnits(itemIds);
+            return deleted;
+        });
+        return removed == null ? 0 : removed;
     }
 }
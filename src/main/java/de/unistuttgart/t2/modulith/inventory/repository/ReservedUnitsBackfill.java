@@ -0,0 +1,45 @@
+package de.unistuttgart.t2.modulith.inventory.repository;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Backfills the reserved units of the items after an upgrade. The column {@code reserved_units} is added by
+ * {@code ddl-auto: update} with a default of 0, thus the open reservations of an existing database are not reflected in
+ * it. Committing or releasing them would decrease the reserved units below 0 and the shop would oversell the items.
+ * <p>
+ * The backfill runs at every startup, but only touches items with reservations and without reserved units, which only
+ * exist before the first backfill (c.f. {@link InventoryRepository#backfillReservedUnits()}).
+ */
+@Component
+public class ReservedUnitsBackfill {
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    private final InventoryRepository repository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ReservedUnitsBackfill(InventoryRepository repository, PlatformTransactionManager transactionManager) {
+        assert (repository != null && transactionManager != null);
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Sets the reserved units of all items with open reservations but no reserved units to the sum of their
+     * reservations.
+     */
+    @PostConstruct
+    public void backfill() {
+        Integer updated = transactionTemplate.execute(status -> repository.backfillReservedUnits());
+        if (updated != null && updated > 0) {
+            LOG.info("Backfilled the reserved units of {} items from their reservations.", updated);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package de.unistuttgart.t2.modulith.inventory.web;
 
 import de.unistuttgart.t2.modulith.inventory.repository.DataGenerator;
+import de.unistuttgart.t2.modulith.inventory.repository.DataGenerator.RestockResult;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -32,10 +33,12 @@ public class DataGeneratorController {
 
     /**
      * trigger restock of all products TODO post x restock request seems more reasonable
+     *
+     * @return number of restocked products and duration of the restock
      */
     @Operation(summary = "Restock units of the store's products")
     @GetMapping("/restock")
-    public @ResponseBody void restock() {
-        dataGenerator.restockProducts();
+    public @ResponseBody RestockResult restock() {
+        return dataGenerator.restockProducts();
     }
 }
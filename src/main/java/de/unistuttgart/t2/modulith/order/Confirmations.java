@@ -0,0 +1,51 @@
+package de.unistuttgart.t2.modulith.order;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounded in-memory index of the confirmations that are in progress or succeeded recently, by session and idempotency
+ * key.
+ * <p>
+ * A duplicate of a confirmation gets the future of the original one, thus it neither creates another order nor pays
+ * again. If the index is full, the oldest confirmation is dropped. Duplicates of dropped confirmations are recognized
+ * by the unique idempotency key of the persisted order instead.
+ */
+class Confirmations {
+
+    private final Map<String, CompletableFuture<String>> confirmations;
+
+    /**
+     * @param maxSize max number of confirmations in the index
+     */
+    Confirmations(int maxSize) {
+        this.confirmations = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Register a confirmation unless there already is one for the same session and key.
+     *
+     * @return the future of the confirmation already registered, or null if the given one was registered
+     */
+    synchronized CompletableFuture<String> putIfAbsent(String sessionId, String idempotencyKey,
+                                                       CompletableFuture<String> confirmation) {
+        return confirmations.putIfAbsent(key(sessionId, idempotencyKey), confirmation);
+    }
+
+    /**
+     * Remove a confirmation, e.g. because it failed and may be tried again.
+     */
+    synchronized void remove(String sessionId, String idempotencyKey, CompletableFuture<String> confirmation) {
+        confirmations.remove(key(sessionId, idempotencyKey), confirmation);
+    }
+
+    private static String key(String sessionId, String idempotencyKey) {
+        return sessionId + '\n' + idempotencyKey;
+    }
+}
@@ -0,0 +1,52 @@
+package de.unistuttgart.t2.modulith.order;
+
+import de.unistuttgart.t2.modulith.cart.CartService;
+import de.unistuttgart.t2.modulith.inventory.InventoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.modulith.events.ApplicationModuleListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Completes confirmed orders after the confirmation was answered, by committing the reservations and deleting the cart
+ * of the session.
+ * <p>
+ * Exactly the ordered units are committed, from the reservations the order holds. Held reservations do not expire,
+ * thus neither a slow listener nor units the session reserved after the order change what is committed.
+ * <p>
+ * Both listeners run asynchronously, each in a transaction of its own, and are repeated for incomplete event
+ * publications on restart. Both operations are idempotent, thus it does not matter if a listener receives an event
+ * twice.
+ */
+@Component
+public class OrderCompletion {
+
+    private final CartService cartService;
+
+    private final InventoryService inventoryService;
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    public OrderCompletion(@Autowired CartService cartService,
+                           @Autowired InventoryService inventoryService) {
+        this.cartService = cartService;
+        this.inventoryService = inventoryService;
+    }
+
+    @ApplicationModuleListener
+    public void commitReservations(OrderConfirmed event) {
+        if (event.units() != null) {
+            inventoryService.commitReservations(event.orderId(), event.units());
+        } else {
+            inventoryService.commitReservations(event.sessionId());
+        }
+        LOG.info("Reservations of order '{}' committed.", event.orderId());
+    }
+
+    @ApplicationModuleListener
+    public void deleteCart(OrderConfirmed event) {
+        cartService.deleteCart(event.sessionId());
+        LOG.info("Cart of order '{}' deleted.", event.orderId());
+    }
+}
@@ -0,0 +1,17 @@
+package de.unistuttgart.t2.modulith.order;
+
+import java.util.Map;
+
+/**
+ * Published once the payment of an order succeeded.
+ * <p>
+ * The publication is stored in the event publication registry together with the transaction it is published in, thus
+ * each listener receives it at least once, even if the application stops before the listener completed.
+ *
+ * @param orderId   identifies the order
+ * @param sessionId identifies the session that placed the order
+ * @param units     ordered units per product id, i.e. the units to commit. null for events published before the
+ *                  units were part of the event
+ */
+public record OrderConfirmed(String orderId, String sessionId, Map<String, Integer> units) {
+}
@@ -3,23 +3,44 @@ package de.unistuttgart.t2.modulith.order;
 import de.unistuttgart.t2.modulith.cart.CartContent;
 import de.unistuttgart.t2.modulith.cart.CartService;
 import de.unistuttgart.t2.modulith.inventory.InventoryService;
-import de.unistuttgart.t2.modulith.inventory.Product;
 import de.unistuttgart.t2.modulith.order.repository.OrderItem;
+import de.unistuttgart.t2.modulith.order.repository.OrderLine;
 import de.unistuttgart.t2.modulith.order.repository.OrderRepository;
 import de.unistuttgart.t2.modulith.order.repository.OrderStatus;
 import de.unistuttgart.t2.modulith.payment.PaymentFailedException;
 import de.unistuttgart.t2.modulith.payment.PaymentService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Creates and updates orders.
+ * <p>
+ * Once the payment of an order succeeded, an {@link OrderConfirmed} event is published and the confirmation is
+ * answered. Committing the reservations and deleting the cart is left to the listeners of the event in
+ * {@link OrderCompletion}.
  *
  * @author maumau
  * @author davidkopp
@@ -36,16 +57,76 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
 
+    private final Confirmations confirmations;
+
+    private final Consumer<OrderConfirmed> orderConfirmedPublisher;
+
+    /** confirmations that have not yet placed and paid their order */
+    private final AtomicInteger checkoutsInProgress = new AtomicInteger();
+
     private final Logger LOG = LoggerFactory.getLogger(getClass());
 
-    public OrderService(@Autowired CartService cartService,
-                        @Autowired InventoryService inventoryService,
-                        @Autowired PaymentService paymentService,
-                        @Autowired OrderRepository orderRepository) {
+    /**
+     * @param eventPublisher     publishes the {@link OrderConfirmed} events
+     * @param transactionManager manages the transactions the events are published in, as the event publication
+     *                           registry stores them with the transaction
+     * @param maxConfirmations   max number of confirmations with idempotency key that are kept in memory
+     */
+    @Autowired
+    public OrderService(CartService cartService,
+                        InventoryService inventoryService,
+                        PaymentService paymentService,
+                        OrderRepository orderRepository,
+                        ApplicationEventPublisher eventPublisher,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${t2.order.idempotency.maxEntries:10000}") int maxConfirmations) {
+        this(cartService, inventoryService, paymentService, orderRepository, maxConfirmations,
+            event -> new TransactionTemplate(transactionManager)
+                .executeWithoutResult(status -> eventPublisher.publishEvent(event)));
+    }
+
+    /**
+     * Create a service that completes confirmed orders synchronously instead of publishing events.
+     */
+    public OrderService(CartService cartService,
+                        InventoryService inventoryService,
+                        PaymentService paymentService,
+                        OrderRepository orderRepository) {
+        this(cartService, inventoryService, paymentService, orderRepository, 10000,
+            completeSynchronously(new OrderCompletion(cartService, inventoryService)));
+    }
+
+    private OrderService(CartService cartService,
+                         InventoryService inventoryService,
+                         PaymentService paymentService,
+                         OrderRepository orderRepository,
+                         int maxConfirmations,
+                         Consumer<OrderConfirmed> orderConfirmedPublisher) {
         this.cartService = cartService;
         this.inventoryService = inventoryService;
         this.paymentService = paymentService;
         this.orderRepository = orderRepository;
+        this.confirmations = new Confirmations(maxConfirmations);
+        this.orderConfirmedPublisher = orderConfirmedPublisher;
+    }
+
+    /**
+     * Registers the gauge of the checkouts in progress.
+     *
+     * @param meterRegistry registry for the gauge, the global registry is used if absent
+     */
+    @Autowired
+    public void setMeterRegistry(ObjectProvider<MeterRegistry> meterRegistry) {
+        Gauge.builder("t2.order.checkouts.active", checkoutsInProgress, AtomicInteger::get)
+            .description("Confirmations whose order is not yet placed and paid")
+            .register(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    private static Consumer<OrderConfirmed> completeSynchronously(OrderCompletion completion) {
+        return event -> {
+            completion.commitReservations(event);
+            completion.deleteCart(event);
+        };
     }
 
     /**
@@ -56,14 +137,24 @@ public class OrderService {
      * @return orderId of created order
      */
     public String createOrder(String sessionId) {
+        return createOrder(sessionId, null, List.of());
+    }
 
-        OrderItem item = new OrderItem(sessionId);
+    /**
+     * @throws DuplicateKeyException if there already is an order with the idempotency key
+     */
+    private String createOrder(String sessionId, String idempotencyKey, List<OrderLine> lineItems) {
+
+        OrderItem item = new OrderItem(sessionId, idempotencyKey, lineItems);
         return orderRepository.save(item).getOrderId();
     }
 
     /**
      * Set the state of an order to {@link OrderStatus#FAILURE FAILURE}. This operation is idempotent, as a order may
      * never change from {@link OrderStatus#FAILURE FAILURE} to any other status.
+     * <p>
+     * The idempotency key of the order is released, such that the confirmation can be repeated with the same key,
+     * e.g. after a transient failure of the payment provider.
      *
      * @param orderId id of order that is to be rejected
      * @throws NoSuchElementException if the id is in the db but retrieval fails anyway.
@@ -72,12 +163,13 @@ public class OrderService {
 
         OrderItem item = orderRepository.findById(orderId).get();
         item.setStatus(OrderStatus.FAILURE);
+        item.setIdempotencyKey(null);
         orderRepository.save(item);
     }
 
     /**
-     * Completes the order by creating an order in the database, making the payment, committing the reservation
-     * and finally deleting the cart.
+     * Completes the order by creating an order in the database, making the payment and finally publishing that the
+     * order is confirmed, upon which the reservations are committed and the cart is deleted.
      * The method is not marked as transactional on purpose! MongoDB's transaction support is not configured yet,
      * so the create order operation would be not transactional anyway.
      * However, if the payment fails, the order gets rejected. In case of a payment failure, the cart and reservations
@@ -92,59 +184,270 @@ public class OrderService {
      *                   or if there are any other errors during the placement of the order
      */
     public String confirmOrder(String sessionId, String cardNumber, String cardOwner, String checksum) throws Exception {
+        checkoutsInProgress.incrementAndGet();
+        try {
+            PlacedOrder order = placeOrder(sessionId, null);
+
+            // Do payment
+            try {
+                paymentService.doPayment(cardNumber, cardOwner, checksum, order.total());
+                LOG.info("Payment of order '{}' was successful!", order.orderId());
+            } catch (PaymentFailedException e) {
+                throw paymentFailed(sessionId, order.orderId(), e);
+            }
+
+            return completeOrder(sessionId, order);
+        } finally {
+            checkoutsInProgress.decrementAndGet();
+        }
+    }
+
+    /**
+     * Completes the order like {@link #confirmOrder(String, String, String, String)}, but at most once per idempotency
+     * key, c.f. {@link #confirmOrderAsync(String, String, String, String, String)}.
+     *
+     * @param sessionId      identifies the session
+     * @param idempotencyKey identifies the confirmation, confirms without deduplication if null
+     * @param cardNumber     part of payment details
+     * @param cardOwner      part of payment details
+     * @param checksum       part of payment details
+     * @return identifies the order
+     * @throws Exception if the order could not be placed or the key was used by another session
+     */
+    public String confirmOrder(String sessionId, String idempotencyKey, String cardNumber, String cardOwner,
+                               String checksum) throws Exception {
+        try {
+            return confirmOrderAsync(sessionId, idempotencyKey, cardNumber, cardOwner, checksum).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Completes the order like {@link #confirmOrder}, but does not wait for the payment provider.
+     * <p>
+     * The order is created by the calling thread. If the payment service is in async mode, the calling thread is
+     * released as soon as the payment request is sent, and the order confirmation is published once the payment
+     * succeeded.
+     *
+     * @param sessionId  identifies the session
+     * @param cardNumber part of payment details
+     * @param cardOwner  part of payment details
+     * @param checksum   part of payment details
+     * @return future that completes with the id of the order, or completes exceptionally if the order to confirm is
+     *     empty, would result in a negative sum or if there are any other errors during the placement of the order
+     */
+    public CompletableFuture<String> confirmOrderAsync(String sessionId, String cardNumber, String cardOwner,
+                                                       String checksum) {
+        return confirmAsync(sessionId, null, cardNumber, cardOwner, checksum);
+    }
+
+    /**
+     * Completes the order like {@link #confirmOrderAsync(String, String, String, String)}, but at most once per
+     * idempotency key.
+     * <p>
+     * Duplicates of a confirmation, e.g. due to double-clicks or retries of the client, neither create another order
+     * nor pay again nor commit the reservations again. A duplicate of a confirmation in progress completes with the
+     * original confirmation, a duplicate of a completed confirmation completes with the id of the order or fails if
+     * the payment of the order failed. Confirmations in progress or recently completed are found in memory, older ones
+     * and those handled by other instances of the application are found by the unique idempotency key of their order.
+     * A confirmation that failed, e.g. because the cart was empty or the payment failed, may be repeated with the same
+     * key, as a rejected order releases its key.
+     *
+     * @param sessionId      identifies the session
+     * @param idempotencyKey identifies the confirmation, confirms without deduplication if null
+     * @param cardNumber     part of payment details
+     * @param cardOwner      part of payment details
+     * @param checksum       part of payment details
+     * @return future that completes with the id of the order, or completes exceptionally if the order could not be
+     *     placed or the key was used by another session
+     */
+    public CompletableFuture<String> confirmOrderAsync(String sessionId, String idempotencyKey, String cardNumber,
+                                                       String cardOwner, String checksum) {
+        if (idempotencyKey == null) {
+            return confirmOrderAsync(sessionId, cardNumber, cardOwner, checksum);
+        }
+
+        CompletableFuture<String> confirmation = new CompletableFuture<>();
+        CompletableFuture<String> original = confirmations.putIfAbsent(sessionId, idempotencyKey, confirmation);
+        if (original != null) {
+            LOG.info("Confirmation '{}' of session '{}' is a duplicate.", idempotencyKey, sessionId);
+            return original;
+        }
+
+        confirmOnce(sessionId, idempotencyKey, cardNumber, cardOwner, checksum).whenComplete((orderId, e) -> {
+            if (e != null) {
+                // the order of a failed payment is persisted, thus only confirmations without order are repeated
+                confirmations.remove(sessionId, idempotencyKey, confirmation);
+                confirmation.completeExceptionally(e);
+            } else {
+                confirmation.complete(orderId);
+            }
+        });
+        return confirmation;
+    }
+
+    /**
+     * Completes the order unless there already is an order with the idempotency key.
+     */
+    private CompletableFuture<String> confirmOnce(String sessionId, String idempotencyKey, String cardNumber,
+                                                  String cardOwner, String checksum) {
+        Optional<OrderItem> existing;
+        try {
+            existing = orderRepository.findByIdempotencyKey(idempotencyKey);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (existing.isPresent()) {
+            return alreadyPlaced(sessionId, idempotencyKey, existing.get());
+        }
+
+        return confirmAsync(sessionId, idempotencyKey, cardNumber, cardOwner, checksum)
+            .exceptionallyCompose(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof DuplicateKeyException) {
+                    // confirmed concurrently by another instance
+                    return orderRepository.findByIdempotencyKey(idempotencyKey)
+                        .map(order -> alreadyPlaced(sessionId, idempotencyKey, order))
+                        .orElseGet(() -> CompletableFuture.failedFuture(cause));
+                }
+                return CompletableFuture.failedFuture(cause);
+            });
+    }
+
+    /**
+     * Answers a duplicate confirmation with the order that was placed for the idempotency key before. If that order is
+     * still waiting for its payment on another instance, the duplicate completes with its id already.
+     */
+    private CompletableFuture<String> alreadyPlaced(String sessionId, String idempotencyKey, OrderItem order) {
+        if (!sessionId.equals(order.getSessionId())) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                String.format("Idempotency key '%s' was already used by another session.", idempotencyKey)));
+        }
+        if (order.getStatus() == OrderStatus.FAILURE) {
+            return CompletableFuture.failedFuture(new RuntimeException(
+                String.format("Payment for order '%s' of session '%s' failed.", order.getOrderId(), sessionId)));
+        }
+        LOG.info("Order '{}' was already placed for confirmation '{}' of session '{}'.", order.getOrderId(),
+            idempotencyKey, sessionId);
+        return CompletableFuture.completedFuture(order.getOrderId());
+    }
+
+    private CompletableFuture<String> confirmAsync(String sessionId, String idempotencyKey, String cardNumber,
+                                                   String cardOwner, String checksum) {
+        checkoutsInProgress.incrementAndGet();
+        PlacedOrder order;
+        try {
+            order = placeOrder(sessionId, idempotencyKey);
+        } catch (Exception e) {
+            checkoutsInProgress.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return paymentService.doPaymentAsync(cardNumber, cardOwner, checksum, order.total())
+            .handle((ignored, e) -> {
+                if (e != null) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    throw paymentFailed(sessionId, order.orderId(), cause);
+                }
+                LOG.info("Payment of order '{}' was successful!", order.orderId());
+                return completeOrder(sessionId, order);
+            })
+            .whenComplete((orderId, e) -> checkoutsInProgress.decrementAndGet());
+    }
+
+    /**
+     * Calculates the total and creates the order with the line items of the cart. The reservations of the ordered
+     * products are held for the order, such that they do not expire before the order is committed.
+     *
+     * @param idempotencyKey key to create the order with, may be null
+     * @throws Exception if the order to confirm is empty or would result in a negative sum, or a
+     *                   {@link DuplicateKeyException} if there already is an order with the idempotency key
+     */
+    private PlacedOrder placeOrder(String sessionId, String idempotencyKey) throws Exception {
 
         // Calculating total
-        double total;
+        List<OrderLine> lineItems;
         try {
-            total = getTotal(sessionId);
+            lineItems = getLineItems(sessionId);
         } catch (Exception e) {
             throw new Exception(String.format("No order placed for session '%s'. Calculating total failed.", sessionId), e);
         }
+        double total = lineItems.stream().mapToDouble(OrderLine::getTotal).sum();
         if (total <= 0) {
             throw new Exception(String.format("No order placed for session '%s'. Cart is either empty or not available.", sessionId));
         }
 
-        String orderId = createOrder(sessionId);
-        LOG.info("Order '{}' created for session '{}'. Waiting for payment...", orderId, sessionId);
-
-        // Do payment
+        String orderId = createOrder(sessionId, idempotencyKey, lineItems);
+        Map<String, Integer> units = lineItems.stream()
+            .collect(Collectors.toMap(OrderLine::getProductId, OrderLine::getUnits, Integer::sum));
         try {
-            paymentService.doPayment(cardNumber, cardOwner, checksum, total);
-            LOG.info("Payment of order '{}' was successful!", orderId);
-        } catch (PaymentFailedException e) {
-            LOG.error("Payment of order '{}' failed! Rejecting order.", orderId);
+            inventoryService.holdReservations(sessionId, orderId, units.keySet());
+        } catch (RuntimeException e) {
             rejectOrder(orderId);
-            throw new RuntimeException(
-                String.format("Payment for order '%s' of session '%s' failed.", orderId, sessionId), e);
+            throw new Exception(String.format("Order '%s' of session '%s' rejected. Holding the reservations failed.",
+                orderId, sessionId), e);
         }
+        LOG.info("Order '{}' created for session '{}'. Waiting for payment...", orderId, sessionId);
 
-        // Commit reservations
-        inventoryService.commitReservations(sessionId);
+        return new PlacedOrder(orderId, total, units);
+    }
 
-        // Delete cart
-        cartService.deleteCart(sessionId);
+    /**
+     * Rejects the order after its payment failed. The reservations are kept for another attempt, but no longer held.
+     *
+     * @return the exception to throw
+     */
+    private RuntimeException paymentFailed(String sessionId, String orderId, Throwable cause) {
+        LOG.error("Payment of order '{}' failed! Rejecting order.", orderId);
+        rejectOrder(orderId);
+        inventoryService.cancelHold(orderId);
+        return new RuntimeException(
+            String.format("Payment for order '%s' of session '%s' failed.", orderId, sessionId), cause);
+    }
+
+    /**
+     * Publishes that the order is paid, such that its reservations are committed and its cart is deleted.
+     *
+     * @return identifies the order
+     */
+    private String completeOrder(String sessionId, PlacedOrder order) {
 
-        LOG.info("Order '{}' executed successfully for session '{}'.", orderId, sessionId);
+        orderConfirmedPublisher.accept(new OrderConfirmed(order.orderId(), sessionId, order.units()));
 
-        return orderId;
+        LOG.info("Order '{}' confirmed for session '{}'.", order.orderId(), sessionId);
+
+        return order.orderId();
     }
 
     /**
-     * Calculates the total of a users cart.
+     * Gets the line items of a users cart, i.e. the units and current price of each product in the cart.
      * <p>
      * Depends on the cart module to get the cart content and
-     * depends on the inventory module to get the price for each product.
+     * depends on the inventory module to get the price for each product, which selects only the prices.
+     * Products that are no longer in the inventory are left out.
      *
-     * @param sessionId identifies the session to get total for
-     * @return the total money to pay for products in the cart
+     * @param sessionId identifies the session to get the line items for
+     * @return the line items, their sum is the total money to pay for products in the cart
      */
-    private double getTotal(String sessionId) {
+    private List<OrderLine> getLineItems(String sessionId) {
         CartContent cart = cartService.getCart(sessionId).orElse(new CartContent());
-        double total = 0;
-        List<Product> products = inventoryService.getProducts(cart.getProductIds());
-        for (Product product : products) {
-            total += product.getPrice() * cart.getUnits(product.getId());
+        Map<String, Double> prices = inventoryService.getPrices(cart.getProductIds());
+        List<OrderLine> lineItems = new ArrayList<>(prices.size());
+        for (String productId : cart.getProductIds()) {
+            Double price = prices.get(productId);
+            if (price != null) {
+                lineItems.add(new OrderLine(productId, cart.getUnits(productId), price));
+            }
         }
-        return total;
+        return lineItems;
+    }
+
+    /**
+     * An order that was created, but not yet paid.
+     *
+     * @param units ordered units per product id
+     */
+    private record PlacedOrder(String orderId, double total, Map<String, Integer> units) {
     }
 }
@@ -0,0 +1,42 @@
+package de.unistuttgart.t2.modulith.order.repository;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the indexes declared on {@link OrderItem} at startup, as automatic index creation of Spring Data MongoDB is
+ * disabled.
+ * <p>
+ * Most notably this is the unique index on the idempotency key, which guarantees that an order is placed at most once
+ * per key, even if the same confirmation reaches several instances of the application.
+ */
+@Component
+public class OrderIndexes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrderIndexes.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public OrderIndexes(@Autowired MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps(OrderItem.class);
+        MongoPersistentEntityIndexResolver resolver =
+            new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        try {
+            resolver.resolveIndexFor(OrderItem.class).forEach(indexOps::ensureIndex);
+        } catch (DataAccessException e) {
+            LOG.warn("Cannot create the indexes of orders: {}", e.getMessage());
+        }
+    }
+}
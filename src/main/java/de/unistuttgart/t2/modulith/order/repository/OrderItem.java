@@ -1,17 +1,27 @@
 package de.unistuttgart.t2.modulith.order.repository;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Represents an order.<br>
  * Each order has a unique {@code orderId} to find it in the repository, a {@code sessionId} to correlate it to other
- * things and a timestamp.
+ * things and a timestamp.<br>
+ * An order confirmed with an idempotency key also has that key, which is unique among all orders.<br>
+ * Each order keeps its line items with the prices at the time of the order, and their total. Orders are indexed by
+ * timestamp, e.g. to scan the orders of a period for reports, and by session and timestamp.
  *
  * @author maumau
  */
+@Document("orderItem")
+@CompoundIndex(name = "sessionId_timestamp", def = "{'sessionId': 1, 'timestamp': 1}")
 public class OrderItem {
 
     @Id
@@ -19,8 +29,15 @@ public class OrderItem {
 
     private String sessionId;
     private OrderStatus status;
+    @Indexed
     private Date timestamp;
 
+    @Indexed(unique = true, sparse = true)
+    private String idempotencyKey;
+
+    private List<OrderLine> lineItems = new ArrayList<>();
+    private double total;
+
     /**
      * used (and required) by Spring.
      */
@@ -36,7 +53,32 @@ public class OrderItem {
      * @param sessionId the session ID of the user making this request
      */
     public OrderItem(String sessionId) {
+        this(sessionId, null);
+    }
+
+    /**
+     * Create a new order like {@link #OrderItem(String)}, that is identified by the given idempotency key, too.
+     *
+     * @param sessionId      the session ID of the user making this request
+     * @param idempotencyKey the key the client confirmed the order with, may be null
+     */
+    public OrderItem(String sessionId, String idempotencyKey) {
+        this(sessionId, idempotencyKey, List.of());
+    }
+
+    /**
+     * Create a new order like {@link #OrderItem(String, String)} with the given line items. The total of the order is
+     * the sum of the line items.
+     *
+     * @param sessionId      the session ID of the user making this request
+     * @param idempotencyKey the key the client confirmed the order with, may be null
+     * @param lineItems      the ordered products with their units and prices
+     */
+    public OrderItem(String sessionId, String idempotencyKey, List<OrderLine> lineItems) {
         this.sessionId = sessionId;
+        this.idempotencyKey = idempotencyKey;
+        this.lineItems = new ArrayList<>(lineItems);
+        total = lineItems.stream().mapToDouble(OrderLine::getTotal).sum();
         status = OrderStatus.SUCCESS;
         timestamp = Date.from(Instant.now());
     }
@@ -73,8 +115,32 @@ public class OrderItem {
         this.timestamp = timestamp;
     }
 
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public List<OrderLine> getLineItems() {
+        return lineItems;
+    }
+
+    public void setLineItems(List<OrderLine> lineItems) {
+        this.lineItems = lineItems;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public void setTotal(double total) {
+        this.total = total;
+    }
+
     @Override
     public String toString() {
-        return String.format("%s : %s , %s ", orderId, sessionId, timestamp.toString());
+        return String.format("%s : %s , %s , %.2f ", orderId, sessionId, timestamp.toString(), total);
     }
 }
@@ -0,0 +1,59 @@
+package de.unistuttgart.t2.modulith.order.repository;
+
+/**
+ * A product of an order, with the ordered units and the price of a unit at the time of the order.
+ */
+public class OrderLine {
+
+    private String productId;
+    private int units;
+    private double price;
+
+    /**
+     * used (and required) by Spring.
+     */
+    public OrderLine() {
+    }
+
+    public OrderLine(String productId, int units, double price) {
+        this.productId = productId;
+        this.units = units;
+        this.price = price;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public void setUnits(int units) {
+        this.units = units;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    /**
+     * @return price of all units of this line
+     */
+    public double getTotal() {
+        return units * price;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %d x %.2f", productId, units, price);
+    }
+}
@@ -2,6 +2,9 @@ package de.unistuttgart.t2.modulith.order.repository;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.Optional;
+
 public interface OrderRepository extends MongoRepository<OrderItem, String> {
 
+    Optional<OrderItem> findByIdempotencyKey(String idempotencyKey);
 }
@@ -1,22 +1,57 @@
 package de.unistuttgart.t2.modulith.payment;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.unistuttgart.t2.modulith.payment.domain.PaymentData;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Contacts a payment provider, e.g. some credit institute, to execute the payment.
+ * <p>
+ * Connections to the payment provider are pooled and kept alive. In async mode, payments are sent with a non-blocking
+ * HTTP client, thus no thread waits while the payment provider responds. The returned futures are completed on a small
+ * callback pool, never on the I/O threads of the client, such that callers may block in their continuations.
+ * <p>
+ * Every attempt goes through a bulkhead and a circuit breaker. If the payment provider degrades, payments fail fast
+ * with a {@link PaymentFailedException} instead of occupying threads until they time out.
  *
  * @author maumau
  * @author davidkopp
@@ -29,27 +64,109 @@ public class PaymentService {
     private final RestTemplate template;
     private final Logger LOG = LoggerFactory.getLogger(getClass());
 
-    // retry stuff
-    RetryConfig config = RetryConfig.custom().maxAttempts(2).build();
+    // async stuff, only present in async mode
+    private final CloseableHttpAsyncClient asyncClient;
+    private final ExecutorService callbackExecutor;
+    private final ScheduledExecutorService retryScheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // retry stuff, calls rejected by the circuit breaker or the bulkhead are not retried
+    RetryConfig config = RetryConfig.custom().maxAttempts(2)
+        .ignoreExceptions(CallNotPermittedException.class, BulkheadFullException.class).build();
     RetryRegistry registry = RetryRegistry.of(config);
     Retry retry = registry.retry("paymentRetry");
 
+    // fail fast stuff
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+
+    /**
+     * Create payment service.
+     *
+     * @param enabled         whether the payment provider is contacted at all
+     * @param providerUrl     url of the payment provider
+     * @param timeout         timeout in seconds for connecting to and waiting for the payment provider
+     * @param async           whether payments are sent with the non-blocking client
+     * @param callbackThreads number of threads that complete the futures of async payments
+     * @param maxConnections  max number of pooled connections to the payment provider
+     * @param keepAlive       time in seconds idle connections are kept alive
+     * @param circuitBreaker  circuit breaker around the payment provider
+     * @param bulkhead        limits the number of payments in progress
+     */
     @Autowired
     public PaymentService(@Value("${t2.payment.provider.enabled:true}") boolean enabled,
                           @Value("${t2.payment.provider.dummy.url}") String providerUrl,
-                          @Value("${t2.payment.provider.timeout:5}") int timeout) {
+                          @Value("${t2.payment.provider.timeout:5}") int timeout,
+                          @Value("${t2.payment.provider.async.enabled:false}") boolean async,
+                          @Value("${t2.payment.provider.async.callbackThreads:8}") int callbackThreads,
+                          @Value("${t2.payment.provider.maxConnections:200}") int maxConnections,
+                          @Value("${t2.payment.provider.keepAlive:30}") int keepAlive,
+                          CircuitBreaker circuitBreaker,
+                          Bulkhead bulkhead) {
+        assert timeout > 0 && callbackThreads > 0 && maxConnections > 0 && keepAlive >= 0;
         this.enabled = enabled;
         this.providerUrl = providerUrl;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofSeconds(timeout))
+            .setSocketTimeout(Timeout.ofSeconds(timeout))
+            .setTimeToLive(TimeValue.ofSeconds(keepAlive)).build();
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setResponseTimeout(Timeout.ofSeconds(timeout)).build();
 
-        RestTemplateBuilder restTemplateBuilder = new RestTemplateBuilder();
-        this.template = restTemplateBuilder.setConnectTimeout(Duration.ofSeconds(timeout))
-            .setReadTimeout(Duration.ofSeconds(timeout)).build();
+        CloseableHttpClient httpClient = HttpClients.custom()
+            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections).setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(connectionConfig).build())
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(keepAlive))
+            .evictIdleConnections(TimeValue.ofSeconds(keepAlive))
+            .build();
+        this.template = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        if (enabled && async) {
+            this.asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(maxConnections).setMaxConnPerRoute(maxConnections)
+                    .setDefaultConnectionConfig(connectionConfig).build())
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(keepAlive))
+                .evictIdleConnections(TimeValue.ofSeconds(keepAlive))
+                .build();
+            this.asyncClient.start();
+            this.callbackExecutor = Executors.newFixedThreadPool(callbackThreads, daemonThreads("payment-callback-"));
+            this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("payment-retry-"));
+            LOG.info("Async payments enabled with at most {} connections to the payment provider.", maxConnections);
+        } else {
+            this.asyncClient = null;
+            this.callbackExecutor = null;
+            this.retryScheduler = null;
+        }
     }
 
     public PaymentService(String providerUrl, RestTemplate restTemplate) {
+        this(providerUrl, restTemplate, CircuitBreaker.ofDefaults("payment"), Bulkhead.ofDefaults("payment"));
+    }
+
+    public PaymentService(String providerUrl, RestTemplate restTemplate, CircuitBreaker circuitBreaker,
+                          Bulkhead bulkhead) {
         this.enabled = true;
         this.providerUrl = providerUrl;
         this.template = restTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.asyncClient = null;
+        this.callbackExecutor = null;
+        this.retryScheduler = null;
+    }
+
+    /**
+     * @return whether payments are sent with the non-blocking client
+     */
+    public boolean isAsync() {
+        return asyncClient != null;
     }
 
     /**
@@ -65,10 +182,125 @@ public class PaymentService {
 
         try {
             PaymentData paymentData = new PaymentData(cardNumber, cardOwner, checksum, total);
-            Retry.decorateSupplier(retry, () -> template.postForObject(providerUrl, paymentData, Void.class)).get();
+            Supplier<Void> call = () -> template.postForObject(providerUrl, paymentData, Void.class);
+            Retry.decorateSupplier(retry,
+                CircuitBreaker.decorateSupplier(circuitBreaker,
+                    Bulkhead.decorateSupplier(bulkhead, call))).get();
+        } catch (CallNotPermittedException | BulkheadFullException e) {
+            throw rejected(e);
         } catch (RestClientException e) {
             LOG.error("Payment failed! Error: {}", e.getMessage());
             throw new PaymentFailedException("Payment failed", e);
         }
     }
+
+    /**
+     * Contact some payment provider to execute the payment without waiting for its response.
+     * <p>
+     * In async mode, the calling thread only sends the request. Otherwise, the payment is done synchronously as with
+     * {@link #doPayment} and the returned future is already completed.
+     *
+     * @return future that completes once the payment is executed, or completes exceptionally with a
+     *     {@link PaymentFailedException} if the call timed out or the payment failed
+     */
+    public CompletableFuture<Void> doPaymentAsync(String cardNumber, String cardOwner, String checksum, double total) {
+        if (!isAsync()) {
+            try {
+                doPayment(cardNumber, cardOwner, checksum, total);
+                return CompletableFuture.completedFuture(null);
+            } catch (PaymentFailedException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        SimpleHttpRequest request;
+        try {
+            String body = objectMapper.writeValueAsString(new PaymentData(cardNumber, cardOwner, checksum, total));
+            request = SimpleRequestBuilder.post(providerUrl).setBody(body, ContentType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new PaymentFailedException("Payment failed", e));
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Retry.decorateCompletionStage(retry, retryScheduler,
+                CircuitBreaker.decorateCompletionStage(circuitBreaker,
+                    Bulkhead.decorateCompletionStage(bulkhead, () -> send(request)))).get()
+            .whenCompleteAsync((ignored, e) -> {
+                if (e == null) {
+                    result.complete(null);
+                    return;
+                }
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof CallNotPermittedException || cause instanceof BulkheadFullException) {
+                    result.completeExceptionally(rejected((RuntimeException) cause));
+                    return;
+                }
+                LOG.error("Payment failed! Error: {}", cause.getMessage());
+                result.completeExceptionally(cause instanceof PaymentFailedException ? cause
+                    : new PaymentFailedException("Payment failed", new CompletionException(cause)));
+            }, callbackExecutor);
+        return result;
+    }
+
+    /**
+     * Payment that was not even sent, because the payment provider is considered degraded or too many payments are in
+     * progress.
+     */
+    private PaymentFailedException rejected(RuntimeException e) {
+        LOG.warn("Payment failed fast! Reason: {}", e.getMessage());
+        return new PaymentFailedException("Payment provider is currently not available", e);
+    }
+
+    /**
+     * Send a single request with the async client.
+     *
+     * @return future that completes exceptionally, like the {@link RestTemplate} would throw, if the request failed or
+     *     the payment provider rejected the payment
+     */
+    private CompletableFuture<Void> send(SimpleHttpRequest request) {
+        CompletableFuture<Void> response = new CompletableFuture<>();
+        asyncClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse result) {
+                if (result.getCode() >= 400) {
+                    HttpStatusCode status = HttpStatusCode.valueOf(result.getCode());
+                    String message = String.format("Payment provider responded with status %d", result.getCode());
+                    response.completeExceptionally(status.is4xxClientError()
+                        ? HttpClientErrorException.create(message, status, result.getReasonPhrase(), null, null, null)
+                        : HttpServerErrorException.create(message, status, result.getReasonPhrase(), null, null, null));
+                } else {
+                    response.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                response.completeExceptionally(new PaymentFailedException("Payment failed", e));
+            }
+
+            @Override
+            public void cancelled() {
+                response.completeExceptionally(new PaymentFailedException("Payment request was cancelled"));
+            }
+        });
+        return response;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (asyncClient != null) {
+            asyncClient.close(CloseMode.GRACEFUL);
+            callbackExecutor.shutdown();
+            retryScheduler.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
@@ -0,0 +1,101 @@
+package de.unistuttgart.t2.modulith.payment.config;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the circuit breaker and the bulkhead that protect the application from a degraded payment provider.
+ * <p>
+ * The circuit breaker opens if too many of the recent payments failed or took as long as the timeout. While it is
+ * open, payments fail immediately instead of waiting for the payment provider. The bulkhead limits the number of
+ * payments in progress, such that payments can not occupy all request threads. Payments that exceed the limit fail
+ * immediately, too.
+ * <p>
+ * State, calls and state transitions of both are exported as metrics.
+ */
+@Configuration
+public class PaymentResilienceConfig {
+
+    public static final String NAME = "payment";
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    private final MeterRegistry meterRegistry;
+
+    public PaymentResilienceConfig(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+    }
+
+    /**
+     * @param timeout                  timeout of the payment provider in seconds, slower calls count as failures
+     * @param failureRateThreshold     percentage of failed calls that opens the circuit breaker
+     * @param slidingWindowSize        number of recent calls the failure rate is computed of
+     * @param waitDurationInOpenState  time in seconds the circuit breaker stays open before it tests the provider again
+     */
+    @Bean
+    public CircuitBreaker paymentCircuitBreaker(
+        @Value("${t2.payment.provider.timeout:5}") int timeout,
+        @Value("${t2.payment.provider.circuitBreaker.failureRateThreshold:50}") float failureRateThreshold,
+        @Value("${t2.payment.provider.circuitBreaker.slidingWindowSize:20}") int slidingWindowSize,
+        @Value("${t2.payment.provider.circuitBreaker.waitDurationInOpenState:30}") int waitDurationInOpenState) {
+
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+            .failureRateThreshold(failureRateThreshold)
+            .slowCallRateThreshold(failureRateThreshold)
+            .slowCallDurationThreshold(Duration.ofSeconds(timeout))
+            .slidingWindowSize(slidingWindowSize)
+            .minimumNumberOfCalls(Math.max(1, slidingWindowSize / 2))
+            .waitDurationInOpenState(Duration.ofSeconds(waitDurationInOpenState))
+            .automaticTransitionFromOpenToHalfOpenEnabled(true)
+            // neither a rejected payment nor a burst of payments are signs of a degraded payment provider
+            .ignoreExceptions(HttpClientErrorException.class, BulkheadFullException.class)
+            .build();
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(config);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+
+        CircuitBreaker circuitBreaker = registry.circuitBreaker(NAME);
+        circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            LOG.warn("Circuit breaker of the payment provider changed from {} to {}.",
+                event.getStateTransition().getFromState(), event.getStateTransition().getToState());
+            Counter.builder("t2.payment.circuitbreaker.transitions")
+                .description("State transitions of the circuit breaker of the payment provider")
+                .tag("from", event.getStateTransition().getFromState().name())
+                .tag("to", event.getStateTransition().getToState().name())
+                .register(meterRegistry).increment();
+        });
+        return circuitBreaker;
+    }
+
+    /**
+     * @param maxConcurrentCalls max number of payments in progress
+     */
+    @Bean
+    public Bulkhead paymentBulkhead(@Value("${t2.payment.provider.bulkhead.maxConcurrentCalls:50}") int maxConcurrentCalls) {
+        BulkheadConfig config = BulkheadConfig.custom()
+            .maxConcurrentCalls(maxConcurrentCalls)
+            .maxWaitDuration(Duration.ZERO)
+            .build();
+        BulkheadRegistry registry = BulkheadRegistry.of(config);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+        return registry.bulkhead(NAME);
+    }
+}
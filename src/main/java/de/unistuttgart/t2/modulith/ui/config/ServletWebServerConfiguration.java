@@ -9,6 +9,10 @@ import org.springframework.context.annotation.Configuration;
 
 /**
  * Improve TLD scanning at startup that is required for processing JSP files.
+ * <p>
+ * The factory is still customized by Spring Boot. In particular, if virtual threads are enabled
+ * ({@code spring.threads.virtual.enabled}) and the application runs on Java 21 or later, Tomcat handles each request on
+ * a virtual thread of its own instead of on its pool of platform threads.
  */
 @Configuration
 public class ServletWebServerConfiguration {
@@ -17,8 +17,12 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Manages interaction with other modules.
@@ -127,6 +131,41 @@ public class UIBackendService {
         cartService.deleteItemFromCart(sessionId, productId, units);
     }
 
+    /**
+     * Apply the given changes of units to a users cart.
+     * <p>
+     * Positive changes add units, negative changes delete units. All added products are reserved at once, either all
+     * reservations are made or none. Afterwards all changes are applied to the cart with a single update.
+     *
+     * @param sessionId identifies the cart to update
+     * @param changes   number of units to add (positive) or delete (negative) per product id
+     * @return successfully added items, with the number of added units
+     * @throws ReservationFailedException if there is an error making reservations for the products
+     */
+    public List<Product> updateCart(String sessionId, Map<String, Integer> changes) throws ReservationFailedException {
+        Map<String, Integer> added = new LinkedHashMap<>();
+        changes.forEach((productId, units) -> {
+            if (units != null && units > 0) {
+                added.put(productId, units);
+            }
+        });
+
+        // contact inventory first, cause i'd rather have dangling reservations than products in the cart that are not
+        // backed with reservations.
+        List<Product> addedProducts;
+        try {
+            addedProducts = inventoryService.makeReservations(sessionId, added);
+        } catch (InsufficientUnitsAvailableException e) {
+            throw new ReservationFailedException(String.format(
+                    "Adding items %s to cart of session %s failed. Reason: %s", added, sessionId, e.getMessage()));
+        }
+        for (Product product : addedProducts) {
+            product.setUnits(added.get(product.getId()));
+        }
+        cartService.updateCart(sessionId, changes);
+        return addedProducts;
+    }
+
     /**
      * Delete the entire cart for the given sessionId.
      *
@@ -166,6 +205,9 @@ public class UIBackendService {
      * once the orchestrator accepted the request. Nothing happens if the deletion
      * of a cart fails, as the cart service
      * supposed to periodically remove out dated cart entries anyway.
+     * <p>
+     * Repeated confirmations of the same cart place the order at most once, a new cart of the session is another
+     * order.
      *
      * @param sessionId  identifies the session
      * @param cardNumber part of payment details
@@ -175,7 +217,8 @@ public class UIBackendService {
     public void confirmOrder(String sessionId, String cardNumber, String cardOwner, String checksum)
             throws OrderNotPlacedException {
         try {
-            orderService.confirmOrder(sessionId, cardNumber, cardOwner, checksum);
+            // double submits of the confirmation of the same cart place a single order
+            orderService.confirmOrder(sessionId, checkoutKey(sessionId), cardNumber, cardOwner, checksum);
         } catch (Exception e) {
             throw new OrderNotPlacedException(e.getMessage());
         }
@@ -185,6 +228,62 @@ public class UIBackendService {
         }
     }
 
+    /**
+     * Get the idempotency key of a checkout of the cart of the given session. The key is derived from the creation date
+     * of the cart, thus it changes with every new cart of the session.
+     *
+     * @param sessionId identifies the session
+     * @return the key of the checkout, null if the session has no cart
+     */
+    private String checkoutKey(String sessionId) {
+        return cartService.getCart(sessionId)
+                .map(CartContent::getCreationDate)
+                .map(creationDate -> sessionId + "@" + creationDate.getTime())
+                .orElse(null);
+    }
+
+    /**
+     * Like {@link #confirmOrder}, but does not block the calling thread while the payment provider responds.
+     *
+     * @param sessionId  identifies the session
+     * @param cardNumber part of payment details
+     * @param cardOwner  part of payment details
+     * @param checksum   part of payment details
+     * @return future that completes once the order is placed, or completes exceptionally with an
+     *     {@link OrderNotPlacedException}
+     */
+    public CompletableFuture<Void> confirmOrderAsync(String sessionId, String cardNumber, String cardOwner,
+                                                     String checksum) {
+        return confirmOrderAsync(sessionId, null, cardNumber, cardOwner, checksum);
+    }
+
+    /**
+     * Like {@link #confirmOrderAsync(String, String, String, String)}, but duplicates of a confirmation with the same
+     * idempotency key complete with the result of the first one instead of placing the order again.
+     *
+     * @param sessionId      identifies the session
+     * @param idempotencyKey identifies the confirmation, may be null
+     * @param cardNumber     part of payment details
+     * @param cardOwner      part of payment details
+     * @param checksum       part of payment details
+     * @return future that completes once the order is placed, or completes exceptionally with an
+     *     {@link OrderNotPlacedException}
+     */
+    public CompletableFuture<Void> confirmOrderAsync(String sessionId, String idempotencyKey, String cardNumber,
+                                                     String cardOwner, String checksum) {
+        return orderService.confirmOrderAsync(sessionId, idempotencyKey, cardNumber, cardOwner, checksum)
+                .handle((orderId, e) -> {
+                    if (e != null) {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        throw new CompletionException(new OrderNotPlacedException(cause.getMessage()));
+                    }
+                    if (enableComputeIntensiveSimulation) {
+                        simulateComputeIntensiveTask(sessionId);
+                    }
+                    return null;
+                });
+    }
+
     /**
      * Calls the computation simulator to simulate a compute intensive scenario.
      * This method is blocking and waits until the computation is finished!
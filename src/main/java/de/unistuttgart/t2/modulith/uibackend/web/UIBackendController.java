@@ -19,9 +19,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Defines the http endpoints of the UIBackend.
@@ -83,7 +82,8 @@ public class UIBackendController {
      * achieve this, at first a
      * reservations are placed in the inventory and only after the reservations are
      * succeeded be are the products added
-     * to the cart.
+     * to the cart. All products are reserved at once and the cart is updated
+     * with a single update, either all products are added or none.
      *
      * @param sessionId         sessionId to identify the user's cart
      * @param updateCartRequest request that contains the id of the products to be
@@ -98,20 +98,7 @@ public class UIBackendController {
     @PostMapping("/cart/{sessionId}")
     public List<Product> updateCart(@PathVariable String sessionId, @RequestBody UpdateCartRequest updateCartRequest)
             throws ReservationFailedException {
-        List<Product> successfullyAddedProducts = new ArrayList<>();
-
-        for (Map.Entry<String, Integer> product : updateCartRequest.getContent().entrySet()) {
-            if (product.getValue() == 0) {
-                continue;
-            }
-            if (product.getValue() > 0) {
-                Product addedProduct = service.addItemToCart(sessionId, product.getKey(), product.getValue());
-                successfullyAddedProducts.add(addedProduct);
-            } else { // product.getValue() < 0
-                service.deleteItemFromCart(sessionId, product.getKey(), Math.abs(product.getValue()));
-            }
-        }
-        return successfullyAddedProducts;
+        return service.updateCart(sessionId, updateCartRequest.getContent());
     }
 
     /**
@@ -132,17 +119,25 @@ public class UIBackendController {
      * invalidated.<br>
      * If the user wants to place another order he needs a new http session.
      *
-     * @param request request to place an Order
-     * @throws OrderNotPlacedException if the order could not be placed.
+     * The request thread is released while the payment provider responds.<br>
+     * Clients may send an {@code Idempotency-Key} header that is unique per order and reused for retries of the
+     * request. An order is placed and paid at most once per key, duplicates get the result of the first request. If
+     * the order could not be placed, the request may be repeated with the same key. Requests without a key are not
+     * deduplicated.
+     *
+     * @param request        request to place an Order
+     * @param idempotencyKey identifies the confirmation, optional
+     * @return future that completes exceptionally with an {@link OrderNotPlacedException} if the order could not be
+     *         placed.
      */
     @Operation(summary = "Order all items in the cart", description = "Order all items in the cart")
     @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Order for items is placed"),
             @ApiResponse(responseCode = "500", description = "Order could not be placed") })
     @PostMapping("/confirm")
-    public void confirmOrder(@RequestBody OrderRequest request)
-            throws OrderNotPlacedException {
-        service.confirmOrder(request.getSessionId(), request.getCardNumber(), request.getCardOwner(),
-                request.getChecksum());
+    public CompletableFuture<Void> confirmOrder(@RequestBody OrderRequest request,
+                                                @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        return service.confirmOrderAsync(request.getSessionId(), idempotencyKey, request.getCardNumber(),
+                request.getCardOwner(), request.getChecksum());
     }
 
     /**
@@ -59,6 +59,10 @@ public final class TestData {
         return new ArrayList<>(List.of(product1));
     }
 
+    public static Map<String, Double> pricesResponse() {
+        return new HashMap<>(Map.of(productId, price));
+    }
+
     public static Optional<Product> anotherInventoryResponse() {
         return Optional.of(new Product(anotherProductId, "name2", "description2", 5, anotherPrice));
     }
@@ -7,11 +7,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,9 +36,12 @@ class CartDBTests {
     @Autowired
     private CartRepository repository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @BeforeEach
     public void populateRepository() {
-        this.cartService = new CartService(repository);
+        this.cartService = new CartService(repository, mongoTemplate);
 
         CartItem emptyCart = new CartItem("foo");
         CartItem filledCart = new CartItem("bar", Map.of("id1", 3, "id2", 4));
@@ -162,4 +169,78 @@ class CartDBTests {
         assertFalse(repository.existsById(id));
         assertEquals(initialSize - 1, repository.findAll().size());
     }
+
+    @Test
+    public void addItemsToExistingCartKeepsCreationDate() {
+        CartItem before = repository.findById("bar").get();
+
+        cartService.addItemToCart("bar", "id1", 1);
+
+        CartItem after = repository.findById("bar").get();
+        assertEquals(before.getCreationDate(), after.getCreationDate());
+        assertEquals(4, after.getContent().get("id1"));
+        assertEquals(4, after.getContent().get("id2"));
+    }
+
+    @Test
+    public void addNewCartSetsCreationDate() {
+        cartService.addItemToCart("baz", "id3", 1);
+
+        assertNotNull(repository.findById("baz").get().getCreationDate());
+    }
+
+    @Test
+    public void deleteItemThatIsNotInCart() {
+        cartService.deleteItemFromCart("bar", "id3", 1);
+        cartService.deleteItemFromCart("unknown", "id3", 1);
+
+        assertFalse(repository.findById("bar").get().getContent().containsKey("id3"));
+        assertFalse(repository.existsById("unknown"));
+    }
+
+    @Test
+    public void updateCartAddsAndDeletesItems() {
+        cartService.updateCart("bar", Map.of("id1", -3, "id2", 1, "id3", 5));
+
+        Map<String, Integer> content = repository.findById("bar").get().getContent();
+        assertEquals(Map.of("id2", 5, "id3", 5), content);
+        assertEquals(initialSize, repository.count());
+    }
+
+    @Test
+    public void updateCartCreatesCartOnlyIfItemsAreAdded() {
+        cartService.updateCart("baz", Map.of("id1", -1));
+        assertTrue(repository.findById("baz").isEmpty());
+
+        cartService.updateCart("baz", Map.of("id1", -1, "id2", 2));
+        CartItem cart = repository.findById("baz").get();
+        assertEquals(Map.of("id2", 2), cart.getContent());
+        assertNotNull(cart.getCreationDate());
+    }
+
+    @Test
+    public void updateCartNeverLeavesNegativeUnits() {
+        cartService.updateCart("bar", Map.of("id1", -10, "id3", -1));
+        assertFalse(repository.findById("bar").get().getContent().containsKey("id1"));
+        assertFalse(repository.findById("bar").get().getContent().containsKey("id3"));
+
+        // an addition after a deletion of more units than in the cart is not lost
+        cartService.addItemToCart("bar", "id1", 1);
+        assertEquals(1, repository.findById("bar").get().getContent().get("id1"));
+
+        cartService.updateCart("baz", Map.of("id1", -1, "id2", 2));
+        assertEquals(Map.of("id2", 2), repository.findById("baz").get().getContent());
+    }
+
+    @Test
+    public void concurrentAddsAreNotLost() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            executor.execute(() -> cartService.addItemToCart("bar", "id3", 1));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(200, repository.findById("bar").get().getContent().get("id3"));
+    }
 }
@@ -2,6 +2,7 @@ package de.unistuttgart.t2.modulith.cart;
 
 import de.unistuttgart.t2.modulith.cart.repository.CartItem;
 import de.unistuttgart.t2.modulith.cart.repository.CartRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -9,13 +10,23 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static de.unistuttgart.t2.modulith.TestData.*;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,29 +39,65 @@ public class CartServiceTests {
     @Mock
     CartRepository cartRepository;
 
+    @Mock
+    MongoTemplate mongoTemplate;
+
     @Captor
-    ArgumentCaptor<CartItem> cartItemCaptor;
+    ArgumentCaptor<Query> queryCaptor;
+
+    @Captor
+    ArgumentCaptor<Update> updateCaptor;
+
+    @Captor
+    ArgumentCaptor<AggregationUpdate> pipelineCaptor;
 
     @Test
     public void addItemToCart() {
-        when(cartRepository.findById(sessionId)).thenReturn(cartItemResponse());
-
         cartService.addItemToCart(sessionId, productId, 1);
 
-        verify(cartRepository, times(1)).save(cartItemCaptor.capture());
-        assertEquals(sessionId, cartItemCaptor.getValue().getId());
-        assertEquals(units + 1, cartItemCaptor.getValue().getContent().get(productId));
+        verify(mongoTemplate, times(1)).upsert(queryCaptor.capture(), updateCaptor.capture(), eq(CartItem.class));
+        verify(cartRepository, never()).save(any());
+        assertEquals(sessionId, queryCaptor.getValue().getQueryObject().get("_id"));
+        Document update = updateCaptor.getValue().getUpdateObject();
+        assertEquals(1, update.get("$inc", Document.class).get("content." + productId));
+        assertTrue(update.get("$setOnInsert", Document.class).containsKey("creationDate"));
     }
 
     @Test
     public void deleteItemFromCart() {
-        when(cartRepository.findById(sessionId)).thenReturn(cartItemResponse());
-
         cartService.deleteItemFromCart(sessionId, productId, 1);
 
-        verify(cartRepository, times(1)).save(cartItemCaptor.capture());
-        assertEquals(sessionId, cartItemCaptor.getValue().getId());
-        assertEquals(units - 1, cartItemCaptor.getValue().getContent().get(productId));
+        // the cart is not created if units are deleted only
+        verify(mongoTemplate).updateFirst(queryCaptor.capture(), pipelineCaptor.capture(), eq(CartItem.class));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(UpdateDefinition.class), eq(CartItem.class));
+        assertEquals(sessionId, queryCaptor.getValue().getQueryObject().get("_id"));
+        String pipeline = pipelineCaptor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).toString();
+        assertTrue(pipeline.contains("content." + productId));
+        assertTrue(pipeline.contains("$$REMOVE"));
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    public void updateCartAppliesAllChangesAtOnce() {
+        cartService.updateCart(sessionId, Map.of(productId, 2, anotherProductId, -1));
+
+        verify(mongoTemplate, times(1)).upsert(any(Query.class), pipelineCaptor.capture(), eq(CartItem.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(CartItem.class));
+        List<Document> pipeline = pipelineCaptor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        List<String> fields = pipeline.stream().flatMap(stage -> stage.get("$set", Document.class).keySet().stream())
+            .toList();
+        // a single update sets the units of both products and the creation date of a new cart
+        assertEquals(3, fields.size());
+        assertEquals(Set.of("content." + productId, "content." + anotherProductId, "creationDate"), Set.copyOf(fields));
+    }
+
+    @Test
+    public void updateCartWithAdditionsOnlyIsSingleUpsert() {
+        cartService.updateCart(sessionId, Map.of(productId, 2, anotherProductId, 0));
+
+        verify(mongoTemplate, times(1)).upsert(any(Query.class), updateCaptor.capture(), eq(CartItem.class));
+        Document inc = updateCaptor.getValue().getUpdateObject().get("$inc", Document.class);
+        assertEquals(Map.of("content." + productId, 2), inc);
     }
 
     @Test
@@ -62,5 +109,7 @@ public class CartServiceTests {
         assertNotNull(cartContent);
         assertEquals(1, cartContent.get().getContent().size());
         assertEquals(units, cartContent.get().getContent().get(productId));
+        assertEquals(cartItemResponse().get().getCreationDate().getTime(),
+            cartContent.get().getCreationDate().getTime(), 1000);
     }
 }
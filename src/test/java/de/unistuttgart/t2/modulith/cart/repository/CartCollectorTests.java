@@ -5,11 +5,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -29,6 +33,9 @@ class CartCollectorTests {
     @Autowired
     CartRepository repository;
 
+    @Autowired
+    MongoTemplate mongoTemplate;
+
     @BeforeEach
     public void populateRepository() {
         // Automatic task scheduling is not tested, therefore it is set to null.
@@ -55,4 +62,23 @@ class CartCollectorTests {
         collector.cleanup();
         assertEquals(1, repository.count());
     }
+
+    @Test
+    public void ttlIndexFollowsConfiguration() {
+        mongoTemplate.indexOps(CartItem.class).dropAllIndexes();
+
+        new CartTimeoutCollector(repository, mongoTemplate, null, 3600, 0, true).scheduleTask();
+        assertEquals(Optional.of(Duration.ofSeconds(3600)), creationDateIndex().getExpireAfter());
+
+        new CartTimeoutCollector(repository, mongoTemplate, null, 60, 0, true).scheduleTask();
+        assertEquals(Optional.of(Duration.ofSeconds(60)), creationDateIndex().getExpireAfter());
+
+        new CartTimeoutCollector(repository, mongoTemplate, null, 60, 0, false).scheduleTask();
+        assertEquals(Optional.empty(), creationDateIndex().getExpireAfter());
+    }
+
+    private IndexInfo creationDateIndex() {
+        return mongoTemplate.indexOps(CartItem.class).getIndexInfo().stream()
+            .filter(info -> CartTimeoutCollector.CREATION_DATE_INDEX.equals(info.getName())).findAny().orElseThrow();
+    }
 }
@@ -0,0 +1,117 @@
+package de.unistuttgart.t2.modulith.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the calls of the services of the modules are recorded.
+ */
+public class ModuleMetricsTests {
+
+    SimpleMeterRegistry meterRegistry;
+    ModuleMetricsConfig.ModuleMetricsPostProcessor postProcessor;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        postProcessor = ModuleMetricsConfig.moduleMetricsPostProcessor(
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    @Test
+    public void recordsCalls() {
+        TestService service = proxy(new TestService());
+
+        assertEquals("result", service.call());
+        assertEquals("result", service.call());
+
+        Timer timer = meterRegistry.get(ModuleMetricsInterceptor.CALLS).tag("module", "config")
+            .tag("class", "TestService").tag("method", "call").tag("exception", "none").timer();
+        assertEquals(2, timer.count());
+        assertTrue(meterRegistry.find(ModuleMetricsInterceptor.ERRORS).counters().isEmpty());
+    }
+
+    @Test
+    public void recordsErrors() {
+        TestService service = proxy(new TestService());
+
+        assertThrows(IllegalStateException.class, service::fail);
+
+        assertEquals(1, meterRegistry.get(ModuleMetricsInterceptor.CALLS).tag("method", "fail")
+            .tag("exception", "IllegalStateException").timer().count());
+        assertEquals(1, meterRegistry.get(ModuleMetricsInterceptor.ERRORS).tag("method", "fail")
+            .tag("exception", "IllegalStateException").counter().count());
+    }
+
+    @Test
+    public void recordsCompletionOfFutures() {
+        TestService service = proxy(new TestService());
+
+        CompletableFuture<String> succeeding = service.callAsync();
+        CompletableFuture<String> failing = service.callAsync();
+        assertTrue(meterRegistry.find(ModuleMetricsInterceptor.CALLS).timers().isEmpty(), "recorded before completion");
+
+        succeeding.complete("result");
+        failing.completeExceptionally(new IllegalStateException("failed"));
+
+        assertEquals(1, meterRegistry.get(ModuleMetricsInterceptor.CALLS).tag("method", "callAsync")
+            .tag("exception", "none").timer().count());
+        assertEquals(1, meterRegistry.get(ModuleMetricsInterceptor.ERRORS).tag("method", "callAsync")
+            .tag("exception", "IllegalStateException").counter().count());
+    }
+
+    @Test
+    public void proxiesServicesOnly() {
+        assertTrue(AopUtils.isAopProxy(postProcessor.postProcessAfterInitialization(new TestService(), "service")));
+        assertFalse(AopUtils.isAopProxy(postProcessor.postProcessAfterInitialization(new NoService(), "noService")));
+        // e.g. mocks, as the annotation is not inherited
+        assertFalse(AopUtils.isAopProxy(postProcessor.postProcessAfterInitialization(new TestService() {
+        }, "subclass")));
+    }
+
+    @Test
+    public void moduleOfClass() {
+        assertEquals("config", ModuleMetricsInterceptor.module(TestService.class));
+        assertEquals("order", ModuleMetricsInterceptor.module(de.unistuttgart.t2.modulith.order.OrderService.class));
+        assertEquals("inventory", ModuleMetricsInterceptor.module(
+            de.unistuttgart.t2.modulith.inventory.repository.InventoryItem.class));
+    }
+
+    private TestService proxy(TestService service) {
+        return (TestService) postProcessor.postProcessAfterInitialization(service, "service");
+    }
+
+    @Service
+    static class TestService {
+
+        public String call() {
+            return "result";
+        }
+
+        public String fail() {
+            throw new IllegalStateException("failed");
+        }
+
+        public CompletableFuture<String> callAsync() {
+            return new CompletableFuture<>();
+        }
+    }
+
+    static class NoService {
+
+        public String call() {
+            return "result";
+        }
+    }
+}
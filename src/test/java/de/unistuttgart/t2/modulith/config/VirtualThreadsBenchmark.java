@@ -0,0 +1,169 @@
+package de.unistuttgart.t2.modulith.config;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.condition.JRE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares throughput and p99 latency of Tomcat on platform threads and on virtual threads.
+ * <p>
+ * Every simulated session sends a few requests, one after another, to a servlet that blocks like a checkout blocked by
+ * the databases and the payment provider. Tomcat is configured as Spring Boot configures it for the T2-Modulith, i.e.
+ * with its default pool of 200 platform threads, or with a virtual thread per request if
+ * {@code spring.threads.virtual.enabled} is set.
+ * <p>
+ * This is no unit test, it only runs on Java 21 or later and if requested explicitly:
+ * <pre>
+ * ./mvnw test -Dtest=VirtualThreadsBenchmark -Dt2.benchmark=true [-Dt2.benchmark.sessions=1000,5000,10000]
+ *     [-Dt2.benchmark.blockingMillis=50]
+ * </pre>
+ * With many sessions, the limit of open files of the shell may have to be raised ({@code ulimit -n}).
+ */
+@EnabledForJreRange(min = JRE.JAVA_21)
+@EnabledIfSystemProperty(named = "t2.benchmark", matches = "true")
+public class VirtualThreadsBenchmark {
+
+    private static final int REQUESTS_PER_SESSION = 5;
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    private final long blockingMillis = Long.getLong("t2.benchmark.blockingMillis", 50);
+    private final int[] sessions = Arrays.stream(System.getProperty("t2.benchmark.sessions", "1000,5000,10000")
+        .split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+
+    @Test
+    public void compareThreadingModes() throws Exception {
+        List<String> results = new ArrayList<>();
+        for (int concurrentSessions : sessions) {
+            for (boolean virtual : new boolean[]{false, true}) {
+                Result result = run(virtual, concurrentSessions);
+                results.add(String.format("%-8s | %8d | %12.0f | %8d", virtual ? "virtual" : "platform",
+                    concurrentSessions, result.throughput(), result.p99()));
+            }
+        }
+        LOG.info("Blocking {} ms per request, {} requests per session\nthreads  | sessions | requests / s | p99 (ms)\n{}",
+            blockingMillis, REQUESTS_PER_SESSION, String.join("\n", results));
+    }
+
+    private Result run(boolean virtual, int concurrentSessions) throws Exception {
+        WebServer server = startTomcat(virtual);
+        try {
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/checkout");
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30)).build();
+
+            // warm up
+            send(client, uri, Math.min(concurrentSessions, 200), new ConcurrentLinkedQueue<>()).join();
+
+            ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+            long start = System.nanoTime();
+            int failed = send(client, uri, concurrentSessions, latencies).join();
+            long duration = System.nanoTime() - start;
+
+            assertEquals(0, failed, "requests failed");
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            long p99 = TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(sorted.length * 0.99) - 1]);
+            return new Result(sorted.length / (duration / 1e9), p99);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Run the given number of sessions concurrently.
+     *
+     * @return future of the number of failed requests
+     */
+    private CompletableFuture<Integer> send(HttpClient client, URI uri, int concurrentSessions,
+                                            ConcurrentLinkedQueue<Long> latencies) {
+        AtomicInteger failed = new AtomicInteger();
+        CompletableFuture<?>[] sessionFutures = new CompletableFuture[concurrentSessions];
+        for (int i = 0; i < concurrentSessions; i++) {
+            CompletableFuture<Void> session = CompletableFuture.completedFuture(null);
+            for (int j = 0; j < REQUESTS_PER_SESSION; j++) {
+                session = session.thenCompose(ignored -> {
+                    long start = System.nanoTime();
+                    HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2)).GET().build();
+                    return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .handle((response, e) -> {
+                            if (e != null || response.statusCode() != 200) {
+                                failed.incrementAndGet();
+                            } else {
+                                latencies.add(System.nanoTime() - start);
+                            }
+                            return null;
+                        });
+                });
+            }
+            sessionFutures[i] = session;
+        }
+        return CompletableFuture.allOf(sessionFutures).thenApply(ignored -> failed.get());
+    }
+
+    private WebServer startTomcat(boolean virtual) {
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        factory.addConnectorCustomizers(connector -> {
+            connector.setProperty("maxConnections", "20000");
+            connector.setProperty("acceptCount", "20000");
+        });
+        if (virtual) {
+            // the same as Spring Boot does if spring.threads.virtual.enabled is set
+            factory.addProtocolHandlerCustomizers(handler -> handler.setExecutor(new VirtualThreadExecutor("tomcat-handler-")));
+        }
+        WebServer server = factory.getWebServer(context ->
+            context.addServlet("checkout", new BlockingServlet(blockingMillis)).addMapping("/checkout"));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Blocks like a request that waits for the databases and the payment provider.
+     */
+    private static class BlockingServlet extends HttpServlet {
+
+        private final long blockingMillis;
+
+        BlockingServlet(long blockingMillis) {
+            this.blockingMillis = blockingMillis;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            try {
+                Thread.sleep(blockingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.setStatus(200);
+            response.getWriter().write("ok");
+        }
+    }
+
+    private record Result(double throughput, long p99) {
+    }
+}
@@ -0,0 +1,74 @@
+package de.unistuttgart.t2.modulith.config.scaling.cpu;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether the CPU usage is topped up to the minimum if it is controlled by feedback.
+ */
+public class CPUManagerTests {
+
+    CPUManager cpuManager = new CPUManager();
+
+    @AfterEach
+    public void tearDown() {
+        cpuManager.stop();
+    }
+
+    @Test
+    public void missingUsage() {
+        assertEquals(0.3, CPUManager.missingUsagePerCore(0.5, 0.2), 1e-9);
+        assertEquals(0.5, CPUManager.missingUsagePerCore(0.5, 0), 1e-9);
+        // real usage above the minimum
+        assertEquals(0, CPUManager.missingUsagePerCore(0.5, 0.7));
+        assertEquals(1, CPUManager.missingUsagePerCore(1.5, 0));
+    }
+
+    @Test
+    public void requestWithFeedback() {
+        CPUUsageRequest request = new CPUUsageRequest();
+        request.setCpuPercentage(0.5);
+        assertFalse(request.convertFromRatio().isFeedback());
+
+        request.setFeedback(true);
+        assertTrue(request.convertFromRatio().isFeedback());
+        request.setCpuPercentage(50.0);
+        assertTrue(request.convertFromHumans().isFeedback());
+    }
+
+    @Test
+    public void feedbackReportsMeasuredUsage() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        CPUUsageRequest request = new CPUUsageRequest();
+        request.setCpuPercentage(0.3 * cores);
+        request.setFeedback(true);
+        cpuManager.requireCPU(request.convertFromRatio());
+
+        // nothing is simulated while other tests use more than the minimum
+        CPUUsage status = cpuManager.getCurrentStatus();
+        for (int i = 0; i < 40 && !(status.getSimulatedCPUUsagePerCore() > 0); i++) {
+            Thread.sleep(CPUManager.CONTROL_PERIOD.toMillis());
+            status = cpuManager.getCurrentStatus();
+        }
+        assertTrue(status.isFeedback());
+        assertTrue(status.getMeasuredCPUUsagePerCore() > 0, status.toString());
+        assertTrue(status.getSimulatedCPUUsagePerCore() > 0, status.toString());
+        assertTrue(status.getSimulatedCPUUsagePerCore() <= status.getMinCPUUsagePerCore() + 0.1, status.toString());
+    }
+
+    @Test
+    public void stopRemovesLimits() {
+        CPUUsageRequest request = new CPUUsageRequest();
+        request.setCpuPercentage(0.1);
+        request.setFeedback(true);
+        cpuManager.requireCPU(request.convertFromRatio());
+        assertTrue(cpuManager.taskExecutor.isPresent());
+
+        cpuManager.stop();
+
+        assertTrue(cpuManager.taskExecutor.isEmpty());
+        assertFalse(cpuManager.getCurrentStatus().limitsPresent());
+    }
+}
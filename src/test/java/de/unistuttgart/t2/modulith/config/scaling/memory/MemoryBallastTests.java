@@ -0,0 +1,100 @@
+package de.unistuttgart.t2.modulith.config.scaling.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test whether the ballast follows the real usage of the heap with hysteresis.
+ */
+public class MemoryBallastTests {
+
+    static final int MIB = 1 << 20;
+
+    /** real usage of the heap, without the ballast */
+    AtomicLong realUsage = new AtomicLong(10L * MIB);
+    AtomicLong uptime = new AtomicLong(1000);
+    MemoryBallast ballast = new MemoryBallast(64L * MIB, MIB, () -> realUsage.get() + this.ballast.getHeapBallast(),
+        uptime::get);
+
+    @Test
+    public void fillsUpToTarget() {
+        ballast.setTargetRatio(0.5);
+        ballast.adjust();
+
+        assertEquals(22L * MIB, ballast.getHeapBallast());
+        assertEquals(0.5, ballast.getAchievedRatio(), 1e-9);
+        assertEquals(22L * MIB, new MemoryInfo(ballast).getBallast());
+    }
+
+    @Test
+    public void followsRealUsageWithHysteresis() {
+        ballast.setTargetRatio(0.5);
+        ballast.adjust();
+
+        // within the hysteresis
+        realUsage.addAndGet(MIB);
+        ballast.adjust();
+        assertEquals(22L * MIB, ballast.getHeapBallast());
+
+        realUsage.addAndGet(9L * MIB);
+        ballast.adjust();
+        assertEquals(12L * MIB, ballast.getHeapBallast());
+
+        realUsage.addAndGet(-15L * MIB);
+        ballast.adjust();
+        assertEquals(27L * MIB, ballast.getHeapBallast());
+    }
+
+    @Test
+    public void ignoresCollectionsBeforeChange() {
+        ballast.setTargetRatio(0.5);
+        ballast.adjust();
+
+        // started before the ballast was allocated
+        ballast.collected(10L * MIB, 1000);
+        ballast.adjust();
+        assertEquals(22L * MIB, ballast.getHeapBallast());
+        assertEquals(0.5, ballast.getAchievedRatio(), 1e-9);
+
+        uptime.set(2000);
+        ballast.collected(42L * MIB, 1500);
+        ballast.adjust();
+        assertEquals(12L * MIB, ballast.getHeapBallast());
+        // the estimate until the next collection
+        assertEquals(32L * MIB, (long) (ballast.getAchievedRatio() * 64 * MIB));
+    }
+
+    @Test
+    public void disableAndClear() {
+        ballast.setTargetRatio(0.5);
+        ballast.adjust();
+
+        ballast.setTargetRatio(0);
+        realUsage.addAndGet(20L * MIB);
+        ballast.adjust();
+        assertEquals(22L * MIB, ballast.getHeapBallast());
+
+        ballast.setTargetRatio(-1);
+        ballast.adjust();
+        assertEquals(0, ballast.getHeapBallast());
+    }
+
+    @Test
+    public void offHeap() {
+        ballast.setOffHeapTarget(3L * MIB + MIB / 2);
+        ballast.adjust();
+        assertEquals(3L * MIB, ballast.getOffHeapBallast());
+        assertEquals(0, ballast.getHeapBallast());
+
+        ballast.setOffHeapTarget(MIB);
+        ballast.adjust();
+        assertEquals(MIB, ballast.getOffHeapBallast());
+
+        ballast.setOffHeapTarget(0);
+        ballast.adjust();
+        assertEquals(0, ballast.getOffHeapBallast());
+    }
+}
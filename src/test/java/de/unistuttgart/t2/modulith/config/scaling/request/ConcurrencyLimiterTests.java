@@ -0,0 +1,157 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test whether requests are shed once the concurrency limit of their route class is reached, and whether the limit
+ * adapts to the latency.
+ */
+public class ConcurrencyLimiterTests {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void routeClasses() {
+        assertEquals(RouteClass.CATALOG, RouteClass.of("/products"));
+        assertEquals(RouteClass.CATALOG, RouteClass.of("/products/foo"));
+        assertEquals(RouteClass.CATALOG, RouteClass.of("/ui/products"));
+        assertEquals(RouteClass.CATALOG, RouteClass.of("/ui"));
+        assertEquals(RouteClass.CART, RouteClass.of("/cart/session"));
+        assertEquals(RouteClass.CART, RouteClass.of("/ui/add"));
+        assertEquals(RouteClass.CONFIRM, RouteClass.of("/confirm"));
+        assertEquals(RouteClass.CONFIRM, RouteClass.of("/ui/confirm"));
+        assertNull(RouteClass.of("/generate"));
+    }
+
+    @Test
+    public void shedsRequestsAboveLimit() throws Exception {
+        ConcurrencyLimiter limiter = limiter(true);
+        MockHttpServletRequest first = request("/confirm");
+        MockHttpServletRequest second = request("/confirm");
+
+        assertTrue(limiter.preHandle(first, new MockHttpServletResponse(), null));
+        assertTrue(limiter.preHandle(second, new MockHttpServletResponse(), null));
+        // other route classes are limited on their own
+        assertTrue(limiter.preHandle(request("/products"), new MockHttpServletResponse(), null));
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(limiter.preHandle(request("/confirm"), rejected, null));
+        assertEquals(503, rejected.getStatus());
+        assertEquals("3", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, meterRegistry.get(ConcurrencyLimiter.REJECTED).tag("route", "confirm").functionCounter()
+            .count());
+        assertEquals(2, meterRegistry.get(ConcurrencyLimiter.IN_FLIGHT).tag("route", "confirm").gauge().value());
+
+        limiter.afterCompletion(first, new MockHttpServletResponse(), null, null);
+        assertTrue(limiter.preHandle(request("/confirm"), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    public void asyncDispatchKeepsPermit() throws Exception {
+        ConcurrencyLimiter limiter = limiter(true);
+        MockHttpServletRequest request = request("/confirm");
+
+        assertTrue(limiter.preHandle(request, new MockHttpServletResponse(), null));
+        limiter.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), null);
+        request.setDispatcherType(DispatcherType.ASYNC);
+        assertTrue(limiter.preHandle(request, new MockHttpServletResponse(), null));
+        assertEquals(1, inFlight(limiter, RouteClass.CONFIRM));
+
+        limiter.afterCompletion(request, new MockHttpServletResponse(), null, null);
+        assertEquals(0, inFlight(limiter, RouteClass.CONFIRM));
+    }
+
+    @Test
+    public void blockAllRoutes() throws Exception {
+        ConcurrencyLimiter limiter = limiter(false);
+
+        limiter.shouldBlockAllRoutes(true);
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(limiter.preHandle(request("/generate"), rejected, null));
+        assertEquals(503, rejected.getStatus());
+
+        limiter.shouldBlockAllRoutes(false);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.preHandle(request("/confirm"), new MockHttpServletResponse(), null));
+        }
+    }
+
+    @Test
+    public void limitAdaptsToLatency() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(RouteClass.CART, 10, 2, 40, 1.5);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now = window(limit, TimeUnit.MILLISECONDS.toNanos(10), now);
+        }
+        assertEquals(40, limit.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            now = window(limit, TimeUnit.MILLISECONDS.toNanos(100), now);
+        }
+        assertTrue(limit.getLimit() < 20, limit.toString());
+
+        // recovers once the latency is low again
+        for (int i = 0; i < 100; i++) {
+            now = window(limit, TimeUnit.MILLISECONDS.toNanos(10), now);
+        }
+        assertEquals(40, limit.getLimit());
+    }
+
+    @Test
+    public void limitDoesNotGrowIfUnused() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(RouteClass.CART, 10, 2, 40, 1.5);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < ConcurrencyLimit.MIN_SAMPLES; j++) {
+                assertTrue(limit.tryAcquire());
+                limit.release(TimeUnit.MILLISECONDS.toNanos(10), now);
+                now += ConcurrencyLimit.WINDOW / ConcurrencyLimit.MIN_SAMPLES;
+            }
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    /**
+     * Runs as many requests in parallel as the limit allows, but at least a complete window.
+     */
+    private static long window(ConcurrencyLimit limit, long latency, long now) {
+        int requests = Math.max(limit.getLimit(), ConcurrencyLimit.MIN_SAMPLES);
+        for (int started = 0; started < requests; ) {
+            int batch = 0;
+            while (started < requests && limit.tryAcquire()) {
+                batch++;
+                started++;
+            }
+            for (int i = 0; i < batch; i++) {
+                limit.release(latency, now);
+            }
+        }
+        return now + ConcurrencyLimit.WINDOW;
+    }
+
+    private ConcurrencyLimiter limiter(boolean enabled) {
+        return new ConcurrencyLimiter(enabled, 2, 1, 10, 10, 2, 1.5, 3,
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        return new MockHttpServletRequest("GET", path);
+    }
+
+    private static int inFlight(ConcurrencyLimiter limiter, RouteClass route) {
+        return limiter.getLimits().stream().filter(limit -> limit.getRoute() == route).findAny().orElseThrow()
+            .getInFlight();
+    }
+}
@@ -0,0 +1,193 @@
+package de.unistuttgart.t2.modulith.config.scaling.request;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test whether each session is throttled on its own once it exceeds the rate of a route class.
+ */
+public class SessionRateLimiterTests {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void throttlesSessionAboveBurst() throws Exception {
+        SessionRateLimiter limiter = limiter(true, 100);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.preHandle(request("/cart/foo"), new MockHttpServletResponse(), null));
+        }
+        MockHttpServletResponse throttled = new MockHttpServletResponse();
+        assertFalse(limiter.preHandle(request("/cart/foo"), throttled, null));
+        assertEquals(429, throttled.getStatus());
+        assertEquals("10", throttled.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, meterRegistry.get(SessionRateLimiter.THROTTLED).tag("route", "cart").counter().count());
+
+        // other sessions and routes are not affected
+        assertTrue(limiter.preHandle(request("/cart/bar"), new MockHttpServletResponse(), null));
+        assertTrue(limiter.preHandle(request("/confirm"), new MockHttpServletResponse(), null));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.preHandle(request("/products"), new MockHttpServletResponse(), null));
+        }
+    }
+
+    @Test
+    public void asyncDispatchTakesNoToken() throws Exception {
+        SessionRateLimiter limiter = limiter(true, 100);
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(true, 1, 1, 1, 1, 1, 1.5, 1,
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+        MockHttpServletRequest first = request("/cart/foo");
+        MockHttpServletRequest request = request("/cart/foo");
+
+        assertTrue(limiter.preHandle(first, new MockHttpServletResponse(), null));
+        assertTrue(limiter.preHandle(request("/cart/foo"), new MockHttpServletResponse(), null));
+        // takes the last token
+        assertTrue(limiter.preHandle(request, new MockHttpServletResponse(), null));
+        assertTrue(concurrencyLimiter.preHandle(request, new MockHttpServletResponse(), null));
+        limiter.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), null);
+        concurrencyLimiter.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), null);
+
+        // the bucket is empty, but the async dispatch must neither be throttled nor lose the permit
+        request.setDispatcherType(DispatcherType.ASYNC);
+        assertTrue(limiter.preHandle(request, new MockHttpServletResponse(), null));
+        assertTrue(concurrencyLimiter.preHandle(request, new MockHttpServletResponse(), null));
+        concurrencyLimiter.afterCompletion(request, new MockHttpServletResponse(), null, null);
+        assertEquals(0, meterRegistry.get(SessionRateLimiter.THROTTLED).tag("route", "cart").counter().count());
+        assertTrue(concurrencyLimiter.getLimits().stream().allMatch(limit -> limit.getInFlight() == 0));
+
+        assertFalse(limiter.preHandle(request("/cart/foo"), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    public void confirmIsLimitedBySessionInBody() throws Exception {
+        SessionRateLimiter limiter = limiter(true, 100);
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(true, 10, 1, 10, 10, 10, 1.5, 1,
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new ConfirmController())
+            .setControllerAdvice(new SessionRateLimitAdvice(limiter))
+            .addInterceptors(limiter, concurrencyLimiter)
+            .build();
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(confirm("foo")).andExpect(status().isOk());
+        }
+        mockMvc.perform(confirm("foo")).andExpect(status().isTooManyRequests())
+            .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        // different sessions from the same address are limited on their own
+        mockMvc.perform(confirm("bar")).andExpect(status().isOk());
+
+        assertEquals(1, meterRegistry.get(SessionRateLimiter.THROTTLED).tag("route", "confirm").counter().count());
+        assertTrue(concurrencyLimiter.getLimits().stream().allMatch(limit -> limit.getInFlight() == 0));
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        SessionRateLimiter limiter = limiter(false, 100);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.preHandle(request("/cart/foo"), new MockHttpServletResponse(), null));
+        }
+    }
+
+    @Test
+    public void sessions() {
+        assertEquals("foo", SessionRateLimiter.session(request("/cart/foo"), "/cart/foo"));
+
+        MockHttpServletRequest ui = request("/ui/add");
+        ui.setSession(new MockHttpSession(null, "bar"));
+        assertEquals("bar", SessionRateLimiter.session(ui, "/ui/add"));
+
+        // read from the body instead
+        assertNull(SessionRateLimiter.session(request("/confirm"), "/confirm"));
+    }
+
+    @Test
+    public void sessionsAreBounded() throws Exception {
+        SessionRateLimiter limiter = limiter(true, 10);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.preHandle(request("/cart/" + i), new MockHttpServletResponse(), null));
+            assertTrue(limiter.sessions(RouteClass.CART) <= 10);
+        }
+    }
+
+    @Test
+    public void bucketRefills() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        long tolerance = 2 * interval;
+        TokenBucket bucket = new TokenBucket(0);
+        assertTrue(bucket.isFull(0));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryTake(0, interval, tolerance));
+        }
+        assertEquals(interval, bucket.tryTake(0, interval, tolerance));
+        assertFalse(bucket.isFull(0));
+
+        assertEquals(interval / 2, bucket.tryTake(interval / 2, interval, tolerance));
+        assertEquals(0, bucket.tryTake(interval, interval, tolerance));
+        assertEquals(interval, bucket.tryTake(interval, interval, tolerance));
+
+        assertTrue(bucket.isFull(4 * interval));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryTake(4 * interval, interval, tolerance));
+        }
+    }
+
+    private SessionRateLimiter limiter(boolean enabled, int maxSessions) {
+        return new SessionRateLimiter(enabled, maxSessions, 0.1, 3, 1, 2,
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    private static MockHttpServletRequestBuilder confirm(String sessionId) {
+        return post("/confirm").contentType(MediaType.APPLICATION_JSON)
+            .content("{\"sessionId\": \"" + sessionId + "\"}");
+    }
+
+    @RestController
+    static class ConfirmController {
+
+        @PostMapping("/confirm")
+        public void confirm(@RequestBody ConfirmRequest request) {
+        }
+    }
+
+    public static class ConfirmRequest {
+
+        private String sessionId;
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public void setSessionId(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        return new MockHttpServletRequest("POST", path);
+    }
+}
@@ -101,6 +101,30 @@ public class InventoryItemTests {
         assertEquals(15, item.getUnits()); // unchanged
     }
 
+    @Test
+    public void reservedUnitsFollowReservations() throws InsufficientUnitsAvailableException {
+        assertEquals(6, item.getReservedUnits());
+
+        item.addReservation(existingSession1, 2);
+        assertEquals(8, item.getReservedUnits());
+
+        item.commitReservation(existingSession1);
+        assertEquals(5, item.getReservedUnits());
+
+        item.deleteReservation(existingSession2);
+        assertEquals(3, item.getReservedUnits());
+        assertEquals(9, item.getAvailableUnits());
+    }
+
+    @Test
+    public void reservedUnitsOfItemCreatedWithReservations() {
+        item = new InventoryItem("id", "name", "description", 15, 0.5,
+            List.of(new Reservation(3, "foo", null), new Reservation(4, "bar", null)));
+
+        assertEquals(7, item.getReservedUnits());
+        assertEquals(8, item.getAvailableUnits());
+    }
+
     @Test
     public void equalsInventoryItem() throws InsufficientUnitsAvailableException {
         assertEquals(item, item);
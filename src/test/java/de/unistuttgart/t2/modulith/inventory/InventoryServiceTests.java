@@ -1,9 +1,8 @@
 package de.unistuttgart.t2.modulith.inventory;
 
 import de.unistuttgart.t2.modulith.TestData;
-import de.unistuttgart.t2.modulith.inventory.repository.InventoryItem;
-import de.unistuttgart.t2.modulith.inventory.repository.InventoryProductMapper;
 import de.unistuttgart.t2.modulith.inventory.repository.InventoryRepository;
+import de.unistuttgart.t2.modulith.inventory.repository.ReservationRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,13 +11,14 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 import static de.unistuttgart.t2.modulith.TestData.*;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 @ActiveProfiles("test")
@@ -27,19 +27,21 @@ public class InventoryServiceTests {
     @Mock
     InventoryRepository productRepository;
 
+    @Mock
+    ReservationRepository reservationRepository;
+
     InventoryService inventoryService;
 
     @BeforeEach
     public void setup() {
-        inventoryService = new InventoryService(productRepository);
+        inventoryService = new InventoryService(productRepository, reservationRepository);
     }
 
     @Test
     public void getAllProducts() {
         // setup inventory response
         List<Product> allProducts = inventoryResponseAllProducts();
-        List<InventoryItem> inventoryItems = allProducts.stream().map(InventoryProductMapper::toInventoryItem).toList();
-        when(productRepository.findAll()).thenReturn(inventoryItems);
+        when(productRepository.findAllProducts()).thenReturn(allProducts);
 
         // execute
         List<Product> products = inventoryService.getAllProducts();
@@ -55,8 +57,7 @@ public class InventoryServiceTests {
     public void getSingleProduct() {
         // setup inventory response
         Optional<Product> productInInventory = inventoryResponse();
-        Optional<InventoryItem> inventoryItem = productInInventory.map(InventoryProductMapper::toInventoryItem);
-        when(productRepository.findById(productId)).thenReturn(inventoryItem);
+        when(productRepository.findProductById(productId)).thenReturn(productInInventory);
 
         // execute
         Product product = inventoryService.getSingleProduct(TestData.productId).get();
@@ -74,9 +75,8 @@ public class InventoryServiceTests {
     public void getProducts() {
         // setup inventory response
         List<Product> allProducts = inventoryResponseAllProducts();
-        List<InventoryItem> inventoryItems = allProducts.stream().map(InventoryProductMapper::toInventoryItem).toList();
-        List<String> ids = inventoryItems.stream().map(InventoryItem::getId).toList();
-        when(productRepository.findAllById(ids)).thenReturn(inventoryItems);
+        List<String> ids = allProducts.stream().map(Product::getId).toList();
+        when(productRepository.findProductsByIdIn(ids)).thenReturn(allProducts);
 
         // execute
         List<Product> products = inventoryService.getProducts(ids);
@@ -86,25 +86,85 @@ public class InventoryServiceTests {
         assertEquals(2, products.size());
         assertEquals(productId, products.get(0).getId());
         assertEquals(anotherProductId, products.get(1).getId());
+        verify(productRepository, never()).findAllById(any());
     }
 
     @Test
     public void makeReservation() throws InsufficientUnitsAvailableException {
         // setup inventory response
-        Optional<Product> productInInventory = inventoryResponse();
-        Optional<InventoryItem> inventoryItem = productInInventory.map(InventoryProductMapper::toInventoryItem);
-        when(productRepository.findById(productId)).thenReturn(inventoryItem);
+        Product productInInventory = inventoryResponse().get();
+        Product reservedProduct = inventoryResponse().get();
+        reservedProduct.setUnits(productInInventory.getUnits() - 2);
+        when(productRepository.reserveUnits(productId, 2)).thenReturn(1);
+        when(reservationRepository.addUnits(eq(productId), eq(sessionId), eq(2), any())).thenReturn(0);
+        when(productRepository.findProductById(productId)).thenReturn(Optional.of(reservedProduct));
+
+        // execute
+        Product product = inventoryService.makeReservation(sessionId, productId, 2);
+
+        // assert
+        assertEquals(productId, product.getId());
+        int expectedAvailableUnits = productInInventory.getUnits() - 2;
+        assertEquals(expectedAvailableUnits, product.getUnits());
+        verify(reservationRepository).saveAndFlush(any());
+        verify(productRepository, never()).save(any());
+    }
+
+    @Test
+    public void makeReservationIncreasesExistingReservation() throws InsufficientUnitsAvailableException {
+        // setup inventory response
+        when(productRepository.reserveUnits(productId, 2)).thenReturn(1);
+        when(reservationRepository.addUnits(eq(productId), eq(sessionId), eq(2), any())).thenReturn(1);
+        when(productRepository.findProductById(productId)).thenReturn(inventoryResponse());
+
+        // execute
+        inventoryService.makeReservation(sessionId, productId, 2);
+
+        // assert
+        verify(reservationRepository, never()).saveAndFlush(any());
+    }
 
-        InventoryItem inventoryItemWithReservation = productInInventory.map(InventoryProductMapper::toInventoryItem).get();
-        inventoryItemWithReservation.addReservation(sessionId, 2);
-        when(productRepository.save(any())).thenReturn(inventoryItemWithReservation);
+    @Test
+    public void makeReservationWithInsufficientUnits() {
+        // setup inventory response
+        when(productRepository.reserveUnits(productId, 6)).thenReturn(0);
+        when(productRepository.findProductById(productId)).thenReturn(inventoryResponse());
+
+        // execute and assert
+        assertThrows(InsufficientUnitsAvailableException.class,
+            () -> inventoryService.makeReservation(sessionId, productId, 6));
+        verify(reservationRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    public void makeReservationOfUnknownProduct() {
+        // setup inventory response
+        when(productRepository.reserveUnits(productId, 1)).thenReturn(0);
+        when(productRepository.findProductById(productId)).thenReturn(Optional.empty());
+
+        // execute and assert
+        assertThrows(NoSuchElementException.class, () -> inventoryService.makeReservation(sessionId, productId, 1));
+    }
+
+    @Test
+    public void commitReservationsOnlyTouchesReservedItems() {
+        // execute
+        inventoryService.commitReservations(sessionId);
 
+        // assert
+        verify(productRepository).commitReservationsOf(sessionId);
+        verify(reservationRepository).deleteByUserId(sessionId);
+        verify(productRepository, never()).findAll();
+    }
+
+    @Test
+    public void deleteReservationsOnlyTouchesReservedItems() {
         // execute
-        Product reservedProduct = inventoryService.makeReservation(sessionId, productId, 2);
+        inventoryService.deleteReservations(sessionId);
 
         // assert
-        assertEquals(productId, reservedProduct.getId());
-        int expectedAvailableUnits = productInInventory.get().getUnits() - 2;
-        assertEquals(expectedAvailableUnits, reservedProduct.getUnits());
+        verify(productRepository).releaseReservationsOf(sessionId);
+        verify(reservationRepository).deleteByUserId(sessionId);
+        verify(productRepository, never()).findAll();
     }
 }
@@ -0,0 +1,137 @@
+package de.unistuttgart.t2.modulith.inventory;
+
+import de.unistuttgart.t2.modulith.inventory.repository.InventoryItem;
+import de.unistuttgart.t2.modulith.inventory.repository.InventoryRepository;
+import de.unistuttgart.t2.modulith.inventory.repository.ProductCache;
+import de.unistuttgart.t2.modulith.inventory.repository.Reservation;
+import de.unistuttgart.t2.modulith.inventory.repository.ReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fires many parallel reservations at a single item and asserts that it is never oversold.
+ * <p>
+ * The reservations must be committed by concurrent transactions, thus the test itself is not transactional and cleans
+ * up after itself.
+ */
+@DataJpaTest
+@ExtendWith(SpringExtension.class)
+@Import({InventoryService.class, ProductCache.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ActiveProfiles("test")
+public class ReservationConcurrencyTests {
+
+    private static final int UNITS_IN_STOCK = 1000;
+    private static final int RESERVATIONS = 4000;
+    private static final int SESSIONS = 50;
+    private static final int THREADS = 32;
+
+    @Autowired
+    InventoryService inventoryService;
+
+    @Autowired
+    InventoryRepository inventoryRepository;
+
+    @Autowired
+    ReservationRepository reservationRepository;
+
+    String productId;
+
+    @BeforeEach
+    public void setup() {
+        productId = inventoryRepository.save(new InventoryItem(null, "name", "description", UNITS_IN_STOCK, 1.0)).getId();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        reservationRepository.deleteAll();
+        inventoryRepository.deleteAll();
+    }
+
+    @Test
+    public void parallelReservationsNeverOversell() throws InterruptedException, ExecutionException {
+        AtomicInteger reserved = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < RESERVATIONS; i++) {
+            String sessionId = "session" + (i % SESSIONS);
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    inventoryService.makeReservation(sessionId, productId, 1);
+                    reserved.incrementAndGet();
+                } catch (InsufficientUnitsAvailableException e) {
+                    rejected.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(UNITS_IN_STOCK, reserved.get());
+        assertEquals(RESERVATIONS - UNITS_IN_STOCK, rejected.get());
+
+        InventoryItem item = inventoryRepository.findWithReservationsById(productId).get();
+        assertEquals(UNITS_IN_STOCK, item.getUnits());
+        assertEquals(UNITS_IN_STOCK, item.getReservedUnits());
+        assertEquals(0, item.getAvailableUnits());
+        assertEquals(UNITS_IN_STOCK, item.getReservations().stream().mapToInt(Reservation::getUnits).sum());
+        assertEquals(0, inventoryService.getSingleProduct(productId).get().getUnits());
+        // concurrent first reservations of a session make a single reservation
+        assertEquals(SESSIONS, item.getReservations().size());
+    }
+
+    @Test
+    public void parallelCommitsAndReservationsKeepCountersConsistent() throws InterruptedException, ExecutionException {
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            String sessionId = "session" + i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 10; j++) {
+                    inventoryService.makeReservation(sessionId, productId, 1);
+                }
+                inventoryService.commitReservations(sessionId);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        InventoryItem item = inventoryRepository.findWithReservationsById(productId).get();
+        assertEquals(UNITS_IN_STOCK - SESSIONS * 10, item.getUnits());
+        assertEquals(0, item.getReservedUnits());
+        assertTrue(item.getReservations().isEmpty());
+    }
+}
@@ -1,21 +1,27 @@
 package de.unistuttgart.t2.modulith.inventory;
 
 import de.unistuttgart.t2.modulith.inventory.repository.InventoryItem;
+import de.unistuttgart.t2.modulith.inventory.repository.ProductCache;
 import de.unistuttgart.t2.modulith.inventory.repository.Reservation;
+import de.unistuttgart.t2.modulith.inventory.repository.ReservedUnitsBackfill;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -25,7 +31,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  */
 @DataJpaTest
 @ExtendWith(SpringExtension.class)
-@Import(InventoryService.class)
+@Import({InventoryService.class, ProductCache.class, ReservedUnitsBackfill.class})
 @ActiveProfiles("test")
 public class ReservationJpaTests extends BaseRepositoryTest {
 
@@ -134,6 +140,49 @@ public class ReservationJpaTests extends BaseRepositoryTest {
         });
     }
 
+    @Test
+    public void makeReservationsForMultipleProducts(@Autowired InventoryService inventoryService) throws InsufficientUnitsAvailableException {
+        // make reservations, one new and one increased
+        String key = existingSession1;
+        List<Product> products = inventoryService.makeReservations(key, Map.of(id1, 2, id2, 6));
+
+        // assert things
+        assertEquals(2, products.size());
+
+        InventoryItem actual = productRepository.findById(id1).get();
+        assertEquals(7, actual.getAvailableUnits());
+        assertEquals(3, getReservation(actual.getReservations(), key).getUnits());
+
+        actual = productRepository.findById(id2).get();
+        assertEquals(190, actual.getAvailableUnits());
+        assertEquals(10, getReservation(actual.getReservations(), key).getUnits());
+
+        Product product = products.stream().filter(p -> p.getId().equals(id2)).findAny().get();
+        assertEquals(190, product.getUnits());
+    }
+
+    @Test
+    public void makeReservationsIsAllOrNothing(@Autowired InventoryService inventoryService) {
+        Map<String, Integer> units = new LinkedHashMap<>();
+        units.put(id1, 1);
+        units.put(id2, 1000);
+
+        Assertions.assertThrows(InsufficientUnitsAvailableException.class, () -> {
+            inventoryService.makeReservations("newSessionId", units);
+        });
+
+        InventoryItem actual = productRepository.findById(id1).get();
+        assertEquals(9, actual.getAvailableUnits());
+        assertReservationAbsence(actual.getReservations(), "newSessionId");
+    }
+
+    @Test
+    public void throwNSEEReservations(@Autowired InventoryService inventoryService) {
+        Assertions.assertThrows(NoSuchElementException.class, () -> {
+            inventoryService.makeReservations(existingSession1, Map.of(id1, 1, "wrongid", 1));
+        });
+    }
+
     @Test
     public void commitReservations(@Autowired InventoryService inventoryService) {
         // make reservation
@@ -148,6 +197,7 @@ public class ReservationJpaTests extends BaseRepositoryTest {
 
         assertEquals(14, actual.getUnits());
         assertEquals(9, actual.getAvailableUnits());
+        assertEquals(5, actual.getReservedUnits());
 
         List<Reservation> actualReservation = actual.getReservations();
 
@@ -166,6 +216,31 @@ public class ReservationJpaTests extends BaseRepositoryTest {
         assertReservationAbsence(actualReservation, key);
     }
 
+    @Test
+    public void commitReservationsOfOrder(@Autowired InventoryService inventoryService) throws InsufficientUnitsAvailableException {
+        String key = existingSession1;
+        inventoryService.holdReservations(key, "orderId", List.of(id1, id2));
+        // the session reserves more units after placing the order
+        inventoryService.makeReservation(key, id1, 2);
+
+        inventoryService.commitReservations("orderId", Map.of(id1, 1, id2, 4));
+        // a repeated event commits nothing
+        inventoryService.commitReservations("orderId", Map.of(id1, 1, id2, 4));
+
+        // only the ordered units are committed, the remaining units are no longer held
+        InventoryItem actual = productRepository.findById(id1).get();
+        assertEquals(14, actual.getUnits());
+        assertEquals(7, actual.getReservedUnits());
+        Reservation remaining = getReservation(actual.getReservations(), key);
+        assertEquals(2, remaining.getUnits());
+        assertNull(remaining.getOrderId());
+
+        actual = productRepository.findById(id2).get();
+        assertEquals(196, actual.getUnits());
+        assertEquals(196, actual.getAvailableUnits());
+        assertReservationAbsence(actual.getReservations(), key);
+    }
+
     @Test
     public void deleteReservations(@Autowired InventoryService inventoryService) {
         // delete reservation
@@ -180,6 +255,7 @@ public class ReservationJpaTests extends BaseRepositoryTest {
 
         assertEquals(15, actual.getUnits());
         assertEquals(10, actual.getAvailableUnits());
+        assertEquals(5, actual.getReservedUnits());
 
         List<Reservation> actualReservation = actual.getReservations();
 
@@ -197,4 +273,82 @@ public class ReservationJpaTests extends BaseRepositoryTest {
         assertEquals(0, actualReservation.size());
         assertReservationAbsence(actualReservation, key);
     }
+
+    @Test
+    public void commitReservationsOfUnknownSession_InventoryUnchanged(@Autowired InventoryService inventoryService) {
+        // commit reservation
+        inventoryService.commitReservations("unknownSession");
+
+        // assert things
+        InventoryItem actual = productRepository.findById(id1).get();
+        assertEquals(15, actual.getUnits());
+        assertEquals(9, actual.getAvailableUnits());
+        assertEquals(3, actual.getReservations().size());
+
+        actual = productRepository.findById(id2).get();
+        assertEquals(200, actual.getUnits());
+        assertEquals(196, actual.getAvailableUnits());
+        assertEquals(1, actual.getReservations().size());
+    }
+
+    @Test
+    public void productProjectionReportsAvailableUnits(@Autowired InventoryService inventoryService) {
+        Product product = inventoryService.getSingleProduct(id1).get();
+        assertEquals(id1, product.getId());
+        assertEquals(9, product.getUnits());
+
+        List<Product> products = inventoryService.getAllProducts();
+        assertEquals(2, products.size());
+        for (Product p : products) {
+            assertEquals(productRepository.findById(p.getId()).get().getAvailableUnits(), p.getUnits());
+        }
+
+        assertEquals(1, inventoryService.getProducts(List.of(id2)).size());
+        assertEquals(196, inventoryService.getProducts(List.of(id2)).get(0).getUnits());
+    }
+
+    @Test
+    public void cachedProductsFollowReservations(@Autowired InventoryService inventoryService,
+                                                 @Autowired ProductCache productCache) throws InsufficientUnitsAvailableException {
+        // products of previous tests were rolled back without the cache noticing
+        productCache.invalidateAll();
+
+        assertEquals(9, inventoryService.getSingleProduct(id1).get().getUnits());
+        inventoryService.getAllProducts();
+
+        inventoryService.makeReservation("newSessionId", id1, 4);
+
+        assertEquals(5, inventoryService.getSingleProduct(id1).get().getUnits());
+        Product product = inventoryService.getAllProducts().stream().filter(p -> p.getId().equals(id1)).findAny().get();
+        assertEquals(5, product.getUnits());
+
+        inventoryService.deleteReservations("newSessionId");
+
+        assertEquals(9, inventoryService.getProducts(List.of(id1)).get(0).getUnits());
+    }
+
+    @Test
+    public void getPrices(@Autowired InventoryService inventoryService) {
+        Map<String, Double> prices = inventoryService.getPrices(List.of(id1, id2, "unknownId"));
+
+        assertEquals(Map.of(id1, 0.5, id2, 1.5), prices);
+        assertTrue(inventoryService.getPrices(List.of()).isEmpty());
+    }
+
+    @Test
+    public void reservedUnitsAreBackfilled(@Autowired ReservedUnitsBackfill backfill,
+                                           @Autowired TestEntityManager entityManager) {
+        // reservations made before the reserved units were kept
+        entityManager.flush();
+        entityManager.getEntityManager().createNativeQuery("update inventory_item set reserved_units = 0")
+            .executeUpdate();
+
+        backfill.backfill();
+
+        assertEquals(9, productRepository.findProductById(id1).get().getUnits());
+        assertEquals(196, productRepository.findProductById(id2).get().getUnits());
+        // a second run does not reserve the units twice
+        backfill.backfill();
+        assertEquals(9, productRepository.findProductById(id1).get().getUnits());
+    }
 }
@@ -8,11 +8,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 @ExtendWith(SpringExtension.class)
@@ -22,11 +24,14 @@ public class DataGeneratorTests {
     @Autowired
     InventoryRepository productRepository;
 
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
     DataGenerator generator;
 
     @BeforeEach
     public void setup() {
-        generator = new DataGenerator(productRepository, 10, true);
+        generator = new DataGenerator(productRepository, transactionManager, 10, true);
         productRepository.deleteAll();
     }
 
@@ -50,7 +55,7 @@ public class DataGeneratorTests {
         generator.generateProducts();
         assertEquals(10, productRepository.count());
 
-        generator = new DataGenerator(productRepository, 15, false);
+        generator = new DataGenerator(productRepository, transactionManager, 15, false);
         generator.generateProducts();
 
         assertEquals(15, productRepository.count());
@@ -62,12 +67,25 @@ public class DataGeneratorTests {
         generator.generateProducts();
         assertEquals(10, productRepository.count());
 
-        generator = new DataGenerator(productRepository, 5, false);
+        generator = new DataGenerator(productRepository, transactionManager, 5, false);
         generator.generateProducts();
 
         assertEquals(10, productRepository.count());
     }
 
+    @Test
+    public void largeDataGenerationInChunks() {
+        assertEquals(0, productRepository.count());
+
+        generator = new DataGenerator(productRepository, transactionManager, 1000, false, 64);
+        generator.generateProducts();
+
+        List<InventoryItem> items = productRepository.findAll();
+        assertEquals(1000, items.size());
+        // the predefined names are used up after the first few hundred products
+        assertTrue(items.stream().anyMatch(item -> item.getName().endsWith(" (4)")), "Expected synthetic names");
+    }
+
     @Test
     public void restockProducts() {
         assertEquals(0, productRepository.count());
@@ -82,4 +100,31 @@ public class DataGeneratorTests {
             assertEquals(Integer.MAX_VALUE, item.getUnits());
         }
     }
+
+    @Test
+    public void restockProductsInChunks() {
+        generator = new DataGenerator(productRepository, transactionManager, 10, false, 3);
+        generator.generateProducts();
+
+        DataGenerator.RestockResult result = generator.restockProducts();
+
+        assertEquals(10, result.restockedProducts());
+        assertEquals(4, result.chunks());
+        for (InventoryItem item : productRepository.findAll()) {
+            assertTrue(item.getUnits() >= 42 && item.getUnits() < 542, "Unexpected units " + item.getUnits());
+        }
+    }
+
+    @Test
+    public void restockNeverLowersUnits() {
+        generator = new DataGenerator(productRepository, transactionManager, 10, false, 3);
+        String wellStocked = productRepository.save(new InventoryItem(null, "name", "description", 10_000, 1.0)).getId();
+        String soldOut = productRepository.save(new InventoryItem(null, "name", "description", 0, 1.0)).getId();
+
+        generator.restockProducts();
+
+        assertEquals(10_000, productRepository.findById(wellStocked).orElseThrow().getUnits());
+        int units = productRepository.findById(soldOut).orElseThrow().getUnits();
+        assertTrue(units >= 42 && units < 542, "Unexpected units " + units);
+    }
 }
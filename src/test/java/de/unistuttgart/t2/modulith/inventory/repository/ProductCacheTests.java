@@ -0,0 +1,204 @@
+package de.unistuttgart.t2.modulith.inventory.repository;
+
+import de.unistuttgart.t2.modulith.inventory.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductCacheTests {
+
+    SimpleMeterRegistry registry;
+    ProductCache cache;
+
+    AtomicInteger catalogLoads;
+    AtomicInteger unitsLoads;
+    Map<String, Product> database;
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        cache = new ProductCache(true, 10, 60_000, 60_000, registry);
+
+        catalogLoads = new AtomicInteger();
+        unitsLoads = new AtomicInteger();
+        database = new LinkedHashMap<>();
+        database.put("id1", new Product("id1", "name1", "description1", 15, 0.5));
+        database.put("id2", new Product("id2", "name2", "description2", 200, 1.5));
+    }
+
+    private List<Product> loadCatalog() {
+        catalogLoads.incrementAndGet();
+        return database.values().stream().map(this::copy).toList();
+    }
+
+    private Map<String, Integer> loadUnits(Collection<String> ids) {
+        unitsLoads.incrementAndGet();
+        Map<String, Integer> units = new HashMap<>();
+        ids.forEach(id -> units.put(id, database.get(id).getUnits()));
+        return units;
+    }
+
+    private Optional<Product> loadProduct(String id) {
+        return Optional.ofNullable(database.get(id)).map(this::copy);
+    }
+
+    private Product copy(Product p) {
+        return new Product(p.getId(), p.getName(), p.getDescription(), p.getUnits(), p.getPrice());
+    }
+
+    private double gets(String result) {
+        return registry.get("t2.inventory.cache.gets").tag("result", result).counter().count();
+    }
+
+    @Test
+    public void catalogIsLoadedOnce() {
+        assertEquals(2, cache.getAll(this::loadCatalog, this::loadUnits).size());
+        List<Product> products = cache.getAll(this::loadCatalog, this::loadUnits);
+
+        assertEquals(1, catalogLoads.get());
+        assertEquals(0, unitsLoads.get());
+        assertEquals(List.of("id1", "id2"), products.stream().map(Product::getId).toList());
+        assertEquals(15, products.get(0).getUnits());
+        assertEquals(2, gets("miss"));
+        assertEquals(2, gets("hit"));
+    }
+
+    @Test
+    public void invalidatedUnitsAreReloaded() {
+        cache.getAll(this::loadCatalog, this::loadUnits);
+        database.get("id1").setUnits(10);
+        cache.invalidateUnits(List.of("id1"));
+
+        List<Product> products = cache.getAll(this::loadCatalog, this::loadUnits);
+
+        assertEquals(1, catalogLoads.get());
+        assertEquals(1, unitsLoads.get());
+        assertEquals(10, products.get(0).getUnits());
+        assertEquals(10, cache.get("id1", this::loadProduct).get().getUnits());
+    }
+
+    @Test
+    public void unitsExpireAfterTTL() {
+        cache = new ProductCache(true, 10, 0, 60_000, registry);
+        cache.get("id1", this::loadProduct);
+        database.get("id1").setUnits(10);
+
+        assertEquals(10, cache.get("id1", this::loadProduct).get().getUnits());
+        assertEquals(2, gets("miss"));
+    }
+
+    @Test
+    public void catalogExpiresAfterTTL() {
+        cache = new ProductCache(true, 10, 60_000, 0, registry);
+        cache.getAll(this::loadCatalog, this::loadUnits);
+        database.put("id3", new Product("id3", "name3", "description3", 1, 2.5));
+
+        assertEquals(3, cache.getAll(this::loadCatalog, this::loadUnits).size());
+        assertEquals(2, catalogLoads.get());
+    }
+
+    @Test
+    public void cacheHandsOutCopies() {
+        cache.get("id1", this::loadProduct).get().setUnits(0);
+
+        assertEquals(15, cache.get("id1", this::loadProduct).get().getUnits());
+    }
+
+    @Test
+    public void loadRacingWithInvalidationIsNotCached() {
+        cache.get("id1", id -> {
+            // reservation happens while the product is read
+            cache.invalidateUnits(List.of(id));
+            return loadProduct(id);
+        });
+        database.get("id1").setUnits(10);
+
+        assertEquals(10, cache.get("id1", this::loadProduct).get().getUnits());
+        assertEquals(0, gets("hit"));
+    }
+
+    @Test
+    public void invalidationOfOtherProductsDoesNotPreventCaching() {
+        cache.getAll(() -> {
+            // reservation of an unrelated product happens while the catalog is read
+            cache.invalidateUnits(List.of("id3"));
+            return loadCatalog();
+        }, this::loadUnits);
+
+        cache.getAll(this::loadCatalog, this::loadUnits);
+
+        assertEquals(1, catalogLoads.get());
+        assertEquals(0, unitsLoads.get());
+        assertEquals(2, gets("hit"));
+    }
+
+    @Test
+    public void onlyMissingProductsAreLoaded() {
+        cache.get("id1", this::loadProduct);
+        List<String> loaded = new ArrayList<>();
+
+        List<Product> products = cache.getAll(List.of("id1", "id2"), ids -> {
+            loaded.addAll(ids);
+            return ids.stream().map(this::loadProduct).flatMap(Optional::stream).toList();
+        });
+
+        assertEquals(2, products.size());
+        assertEquals(List.of("id2"), loaded);
+    }
+
+    @Test
+    public void pricesOfCachedProductsAreNotLoaded() {
+        cache.getAll(this::loadCatalog, this::loadUnits);
+        cache.invalidateUnits(List.of("id1"));
+        List<String> loaded = new ArrayList<>();
+
+        Map<String, Double> prices = cache.getPrices(List.of("id1", "id3"), ids -> {
+            loaded.addAll(ids);
+            return Map.of();
+        });
+
+        // outdated units do not matter for the price
+        assertEquals(Map.of("id1", 0.5), prices);
+        assertEquals(List.of("id3"), loaded);
+    }
+
+    @Test
+    public void fullCacheEvictsProducts() {
+        cache = new ProductCache(true, 1, 60_000, 60_000, registry);
+        cache.get("id1", this::loadProduct);
+        cache.get("id2", this::loadProduct);
+
+        assertEquals(1, registry.get("t2.inventory.cache.evictions").counter().count());
+        assertEquals(200, cache.get("id2", this::loadProduct).get().getUnits());
+        assertEquals(1, gets("hit"));
+    }
+
+    @Test
+    public void catalogLargerThanCacheIsNotCached() {
+        cache = new ProductCache(true, 1, 60_000, 60_000, registry);
+        cache.get("id1", this::loadProduct);
+
+        assertEquals(2, cache.getAll(this::loadCatalog, this::loadUnits).size());
+        assertEquals(2, cache.getAll(this::loadCatalog, this::loadUnits).size());
+
+        // the catalog neither evicts the cached product nor is cached itself
+        assertEquals(0, registry.get("t2.inventory.cache.evictions").counter().count());
+        assertEquals(15, cache.get("id1", this::loadProduct).get().getUnits());
+        assertEquals(2, catalogLoads.get());
+    }
+
+    @Test
+    public void disabledCacheAlwaysLoads() {
+        cache = ProductCache.disabled();
+        cache.getAll(this::loadCatalog, this::loadUnits);
+        cache.getAll(this::loadCatalog, this::loadUnits);
+
+        assertFalse(cache.isEnabled());
+        assertEquals(2, catalogLoads.get());
+    }
+}
@@ -1,6 +1,7 @@
 package de.unistuttgart.t2.modulith.inventory.repository;
 
 import de.unistuttgart.t2.modulith.inventory.InsufficientUnitsAvailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,6 +10,7 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.Instant;
 import java.util.Date;
@@ -32,6 +34,10 @@ class ReservationCollectorTests {
     ReservationRepository repository;
     @Autowired
     InventoryRepository productRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @BeforeEach
     public void populateRepository() throws InsufficientUnitsAvailableException {
@@ -41,7 +47,8 @@ class ReservationCollectorTests {
         item.addReservation("sessionId", 5);
         productRepository.save(item);
 
-        collector = new ReservationTimeoutCollector(0, 0, new ThreadPoolTaskScheduler(), repository, productRepository);
+        collector = new ReservationTimeoutCollector(0, 0, 500, new ThreadPoolTaskScheduler(), repository,
+            productRepository, transactionManager, meterRegistry);
     }
 
     @Test
@@ -60,6 +67,9 @@ class ReservationCollectorTests {
                 assertEquals(1, items.size());
                 assertTrue(reserve.isEmpty());
                 assertTrue(items.get(0).getReservations().isEmpty());
+                assertEquals(0, items.get(0).getReservedUnits());
+                assertEquals(1, meterRegistry.get("t2.inventory.reservations.expired").counter().count());
+                assertEquals(1, meterRegistry.get("t2.inventory.reservations.cleanup").timer().count());
 
                 return;
             }
@@ -68,4 +78,70 @@ class ReservationCollectorTests {
 
         fail("reservation is still not deletable");
     }
+
+    @Test
+    public void collectExpiredEntriesInPages() throws InsufficientUnitsAvailableException, InterruptedException {
+        InventoryItem item = new InventoryItem(null, "other", "desc", 100, 1.0);
+        for (int i = 0; i < 7; i++) {
+            item.addReservation("session" + i, i + 1);
+        }
+        String id = productRepository.save(item).getId();
+        repository.flush();
+        // reservations must be strictly older than the cleanup
+        Thread.sleep(10);
+
+        collector = new ReservationTimeoutCollector(0, 0, 2, new ThreadPoolTaskScheduler(), repository,
+            productRepository, transactionManager, meterRegistry);
+        collector.cleanup();
+
+        assertTrue(repository.findAll().isEmpty());
+        assertEquals(0, productRepository.findById(id).get().getReservedUnits());
+        assertEquals(100, productRepository.findById(id).get().getAvailableUnits());
+        assertEquals(8, meterRegistry.get("t2.inventory.reservations.expired").counter().count());
+    }
+
+    @Test
+    public void keepReservationsWithinTTL() {
+        collector = new ReservationTimeoutCollector(3600, 0, 2, new ThreadPoolTaskScheduler(), repository,
+            productRepository, transactionManager, meterRegistry);
+        collector.cleanup();
+
+        List<InventoryItem> items = productRepository.findAll();
+        assertEquals(1, repository.findAll().size());
+        assertEquals(5, items.get(0).getReservedUnits());
+        assertEquals(0, meterRegistry.get("t2.inventory.reservations.expired").counter().count());
+    }
+
+    @Test
+    public void keepReservationsHeldForOrder() throws InterruptedException {
+        String id = productRepository.findAll().get(0).getId();
+        repository.holdForOrder("sessionId", List.of(id), "orderId");
+        // reservation must be strictly older than the cleanup
+        Thread.sleep(10);
+
+        collector.cleanup();
+
+        assertEquals(1, repository.findAll().size());
+        assertEquals(5, productRepository.findById(id).get().getReservedUnits());
+        assertEquals(0, meterRegistry.get("t2.inventory.reservations.expired").counter().count());
+    }
+
+    @Test
+    public void countOpenReservations() throws InsufficientUnitsAvailableException, InterruptedException {
+        InventoryItem item = new InventoryItem(null, "other", "desc", 100, 1.0);
+        item.addReservation("otherSession", 1);
+        String id = productRepository.save(item).getId();
+        repository.holdForOrder("otherSession", List.of(id), "orderId");
+        // reservations must be strictly older than the count
+        Thread.sleep(10);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ReservationTimeoutCollector withinTTL = new ReservationTimeoutCollector(3600, 0, 2,
+            new ThreadPoolTaskScheduler(), repository, productRepository, transactionManager, registry);
+
+        assertEquals(2, registry.get("t2.inventory.reservations.open").gauge().value());
+        assertEquals(2, withinTTL.countOpenReservations());
+        // expired reservations are not open, unless they are held for an order
+        assertEquals(1, collector.countOpenReservations());
+    }
 }
@@ -0,0 +1,100 @@
+package de.unistuttgart.t2.modulith.loadtest;
+
+import de.unistuttgart.t2.modulith.payment.StubPaymentProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures throughput, latency percentiles and error rates of the endpoints of the checkout flow, i.e. listing the
+ * products, updating and getting the cart and confirming the order.
+ * <p>
+ * The whole application is started with the embedded MongoDB and H2 of the tests. The credit institute is replaced by
+ * a local {@link StubPaymentProvider} that answers after a configurable latency. The load is generated by a
+ * {@link LoadGenerator}, either with a closed workload model of a fixed number of concurrent sessions or with an open
+ * workload model of a fixed arrival rate of sessions.
+ * <p>
+ * This is no unit test, it only runs if requested explicitly:
+ * <pre>
+ * ./mvnw test -Dtest=CheckoutLoadTest -Dt2.loadtest=true [-Dt2.loadtest.model=closed|open]
+ *     [-Dt2.loadtest.sessions=100] [-Dt2.loadtest.arrivalRate=50] [-Dt2.loadtest.thinkTime=500]
+ *     [-Dt2.loadtest.warmup=10] [-Dt2.loadtest.duration=60] [-Dt2.loadtest.paymentLatency=50]
+ *     [-Dt2.loadtest.products=1000] [-Dt2.loadtest.maxErrorRate=0.01]
+ * </pre>
+ * {@code sessions} is the number of concurrent sessions of the closed model, {@code arrivalRate} the number of new
+ * sessions per second of the open model. Times are in milliseconds, except for the warm up and the duration, which are
+ * in seconds. Other properties of the application may be set as system properties, too, e.g.
+ * {@code -Dserver.tomcat.threads.max=50} to size the application like a pod.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "t2.inventory.setUnitsToMax=true",
+    "spring.jpa.properties.hibernate.show_sql=false",
+    "logging.level.de.unistuttgart.t2.modulith=WARN",
+    "logging.level.de.unistuttgart.t2.modulith.loadtest=INFO"
+})
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "t2.loadtest", matches = "true")
+public class CheckoutLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckoutLoadTest.class);
+
+    private static StubPaymentProvider paymentProvider;
+
+    @LocalServerPort
+    private int port;
+
+    private final String model = System.getProperty("t2.loadtest.model", "closed");
+    private final int sessions = Integer.getInteger("t2.loadtest.sessions", 100);
+    private final double arrivalRate = Double.parseDouble(System.getProperty("t2.loadtest.arrivalRate", "50"));
+    private final long thinkTime = Long.getLong("t2.loadtest.thinkTime", 500);
+    private final Duration warmup = Duration.ofSeconds(Long.getLong("t2.loadtest.warmup", 10));
+    private final Duration duration = Duration.ofSeconds(Long.getLong("t2.loadtest.duration", 60));
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("t2.loadtest.maxErrorRate", "0.01"));
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) throws IOException {
+        paymentProvider = new StubPaymentProvider(Long.getLong("t2.loadtest.paymentLatency", 50));
+        registry.add("t2.payment.provider.dummy.url", paymentProvider::getUrl);
+        registry.add("t2.inventory.size", () -> Integer.getInteger("t2.loadtest.products", 1000));
+    }
+
+    @AfterAll
+    static void stopPaymentProvider() {
+        if (paymentProvider != null) {
+            paymentProvider.close();
+        }
+    }
+
+    @Test
+    public void checkout() {
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + port, thinkTime, Duration.ofSeconds(30));
+
+        LoadGenerator.Report report;
+        if (model.equals("open")) {
+            LOG.info("Open workload: {} sessions / s, think time {} ms, warm up {} s, duration {} s",
+                arrivalRate, thinkTime, warmup.toSeconds(), duration.toSeconds());
+            report = generator.runOpen(arrivalRate, warmup, duration);
+        } else {
+            LOG.info("Closed workload: {} sessions, think time {} ms, warm up {} s, duration {} s",
+                sessions, thinkTime, warmup.toSeconds(), duration.toSeconds());
+            report = generator.runClosed(sessions, warmup, duration);
+        }
+        LOG.info("Checkout load test, {} payments sent to the stub provider\n{}", paymentProvider.getRequests(), report);
+
+        assertTrue(report.completedSessions() > 0, "no session completed");
+        assertTrue(report.maxErrorRate() <= maxErrorRate,
+            String.format("error rate %.2f%% exceeds %.2f%%", report.maxErrorRate() * 100, maxErrorRate * 100));
+    }
+}
@@ -0,0 +1,295 @@
+package de.unistuttgart.t2.modulith.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates load on the endpoints of the UIBackend, like shoppers that list the products, put one of them into their
+ * cart, look at their cart and confirm their order.
+ * <p>
+ * The load follows either a closed or an open workload model. In the closed model, a fixed number of users each start
+ * a new session as soon as their previous session ended, thus the load drops as soon as the application slows down. In
+ * the open model, new sessions arrive at a fixed average rate, no matter how many sessions are still in progress, like
+ * the shoppers of a real shop do. Between two requests, a session waits for an exponentially distributed think time.
+ * <p>
+ * Only requests that start after the warm up are recorded. Latencies and errors are recorded per endpoint. A generator
+ * records a single run.
+ */
+public class LoadGenerator {
+
+    static final String GET_PRODUCTS = "GET /products";
+    static final String UPDATE_CART = "POST /cart/{sessionId}";
+    static final String GET_CART = "GET /cart/{sessionId}";
+    static final String CONFIRM = "POST /confirm";
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(30)).build();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final String baseUrl;
+    private final long thinkTimeMillis;
+    private final Duration requestTimeout;
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final AtomicLong completedSessions = new AtomicLong();
+    private final AtomicLong failedSessions = new AtomicLong();
+
+    private volatile long measurementStart = Long.MAX_VALUE;
+    private volatile long measurementEnd = Long.MAX_VALUE;
+
+    /**
+     * @param baseUrl         url of the application, e.g. {@code http://localhost:8080}
+     * @param thinkTimeMillis mean time in milliseconds a session waits between two requests
+     * @param requestTimeout  time after which a request counts as failed
+     */
+    public LoadGenerator(String baseUrl, long thinkTimeMillis, Duration requestTimeout) {
+        this.baseUrl = baseUrl;
+        this.thinkTimeMillis = thinkTimeMillis;
+        this.requestTimeout = requestTimeout;
+        for (String endpoint : List.of(GET_PRODUCTS, UPDATE_CART, GET_CART, CONFIRM)) {
+            endpoints.put(endpoint, new Endpoint());
+        }
+    }
+
+    /**
+     * Run the closed workload model.
+     *
+     * @param users    number of concurrent sessions
+     * @param warmup   time before the requests are recorded
+     * @param duration time the requests are recorded
+     * @return the report of the recorded requests
+     */
+    public Report runClosed(int users, Duration warmup, Duration duration) {
+        long end = startMeasurement(warmup, duration);
+        CompletableFuture<?>[] userFutures = new CompletableFuture[users];
+        for (int i = 0; i < users; i++) {
+            userFutures[i] = sessionsUntil(end);
+        }
+        CompletableFuture.allOf(userFutures).join();
+        return report(duration);
+    }
+
+    /**
+     * Run the open workload model. The sessions arrive as a Poisson process, i.e. the times between two arrivals are
+     * exponentially distributed.
+     *
+     * @param sessionsPerSecond mean number of sessions that start per second
+     * @param warmup            time before the requests are recorded
+     * @param duration          time the requests are recorded
+     * @return the report of the recorded requests
+     */
+    public Report runOpen(double sessionsPerSecond, Duration warmup, Duration duration) {
+        long end = startMeasurement(warmup, duration);
+        AtomicInteger inProgress = new AtomicInteger();
+        long nextArrival = System.nanoTime();
+        while (nextArrival < end) {
+            LockSupport.parkNanos(nextArrival - System.nanoTime());
+            inProgress.incrementAndGet();
+            session().whenComplete((ignored, e) -> inProgress.decrementAndGet());
+            nextArrival += (long) (exponential(1e9 / sessionsPerSecond));
+        }
+        long deadline = System.nanoTime() + requestTimeout.toNanos() * 4 + TimeUnit.MILLISECONDS.toNanos(thinkTimeMillis * 10);
+        while (inProgress.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        return report(duration);
+    }
+
+    /**
+     * @return the end of the measurement
+     */
+    private long startMeasurement(Duration warmup, Duration duration) {
+        measurementStart = System.nanoTime() + warmup.toNanos();
+        measurementEnd = measurementStart + duration.toNanos();
+        return measurementEnd;
+    }
+
+    private CompletableFuture<Void> sessionsUntil(long end) {
+        return session().handle((ignored, e) -> null)
+            .thenCompose(ignored -> System.nanoTime() < end ? sessionsUntil(end) : CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * List the products, put one of them into the cart, get the cart and confirm the order. The session ends at the
+     * first failed request.
+     */
+    private CompletableFuture<Void> session() {
+        String sessionId = UUID.randomUUID().toString();
+        long start = System.nanoTime();
+        return send(GET_PRODUCTS, get("/products"))
+            .thenCompose(products -> thinkTime()
+                .thenCompose(ignored -> send(UPDATE_CART, post("/cart/" + sessionId, cartUpdate(products)))))
+            .thenCompose(ignored -> thinkTime())
+            .thenCompose(ignored -> send(GET_CART, get("/cart/" + sessionId)))
+            .thenCompose(ignored -> thinkTime())
+            .thenCompose(ignored -> send(CONFIRM, post("/confirm", order(sessionId))
+                .header("Idempotency-Key", UUID.randomUUID().toString())))
+            .whenComplete((ignored, e) -> {
+                if (start >= measurementStart && start < measurementEnd) {
+                    (e == null ? completedSessions : failedSessions).incrementAndGet();
+                }
+            })
+            .thenApply(ignored -> null);
+    }
+
+    /**
+     * Send a request and record its latency or its failure.
+     *
+     * @return future of the body of the response, that completes exceptionally if the request failed
+     */
+    private CompletableFuture<String> send(String endpoint, HttpRequest.Builder request) {
+        long start = System.nanoTime();
+        boolean recorded = start >= measurementStart && start < measurementEnd;
+        return client.sendAsync(request.timeout(requestTimeout).build(), HttpResponse.BodyHandlers.ofString())
+            .handle((response, e) -> {
+                boolean failed = e != null || response.statusCode() >= 400;
+                if (recorded) {
+                    endpoints.get(endpoint).record(System.nanoTime() - start, failed);
+                }
+                if (failed) {
+                    throw new IllegalStateException(endpoint + " failed: "
+                        + (e != null ? e.getMessage() : response.statusCode() + " " + response.body()));
+                }
+                return response.body();
+            });
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET();
+    }
+
+    private HttpRequest.Builder post(String path, Object body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @param products list of products as returned by the application
+     * @return request body that puts one unit of a random product into the cart
+     */
+    private Map<String, Object> cartUpdate(String products) {
+        try {
+            JsonNode list = mapper.readTree(products);
+            if (list.isEmpty()) {
+                throw new IllegalStateException("There are no products.");
+            }
+            String productId = list.get(ThreadLocalRandom.current().nextInt(list.size())).get("id").asText();
+            return Map.of("content", Map.of(productId, 1));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> order(String sessionId) {
+        return Map.of("cardNumber", "4111111111111111", "cardOwner", "Load Test", "checksum", "123",
+            "sessionId", sessionId);
+    }
+
+    private CompletableFuture<Void> thinkTime() {
+        if (thinkTimeMillis <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long delay = (long) exponential(thinkTimeMillis);
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
+
+    private static double exponential(double mean) {
+        return -mean * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+    }
+
+    private Report report(Duration duration) {
+        double seconds = duration.toNanos() / 1e9;
+        List<EndpointResult> results = new ArrayList<>();
+        endpoints.forEach((name, endpoint) -> results.add(endpoint.result(name, seconds)));
+        return new Report(duration, completedSessions.get(), failedSessions.get(), results);
+    }
+
+    /**
+     * Latencies and errors of the recorded requests to one endpoint.
+     */
+    private static class Endpoint {
+
+        private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final AtomicLong errors = new AtomicLong();
+
+        void record(long latency, boolean failed) {
+            if (failed) {
+                errors.incrementAndGet();
+            } else {
+                latencies.add(latency);
+            }
+        }
+
+        EndpointResult result(String name, double seconds) {
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            long requests = sorted.length + errors.get();
+            return new EndpointResult(name, requests, sorted.length / seconds,
+                percentile(sorted, 0.5), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                percentile(sorted, 1), requests == 0 ? 0 : (double) errors.get() / requests);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.ceil(sorted.length * percentile) - 1] / 1e6;
+        }
+    }
+
+    /**
+     * @param throughput successful requests per second
+     * @param p50        median latency of the successful requests in milliseconds
+     * @param errorRate  share of the requests that failed
+     */
+    public record EndpointResult(String endpoint, long requests, double throughput, double p50, double p95,
+                                 double p99, double max, double errorRate) {
+    }
+
+    /**
+     * @param completedSessions sessions started during the measurement that placed an order
+     * @param failedSessions    sessions started during the measurement that ended with a failed request
+     */
+    public record Report(Duration duration, long completedSessions, long failedSessions,
+                         List<EndpointResult> endpoints) {
+
+        public double maxErrorRate() {
+            return endpoints.stream().mapToDouble(EndpointResult::errorRate).max().orElse(0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder table = new StringBuilder(String.format(
+                "%d sessions completed, %d failed in %d s (%.1f orders / s)%n",
+                completedSessions, failedSessions, duration.toSeconds(), completedSessions / (duration.toNanos() / 1e9)));
+            table.append(String.format("%-22s | %9s | %12s | %8s | %8s | %8s | %8s | %6s%n",
+                "endpoint", "requests", "requests / s", "p50 (ms)", "p95 (ms)", "p99 (ms)", "max (ms)", "errors"));
+            for (EndpointResult result : endpoints) {
+                table.append(String.format("%-22s | %9d | %12.1f | %8.1f | %8.1f | %8.1f | %8.1f | %5.2f%%%n",
+                    result.endpoint(), result.requests(), result.throughput(), result.p50(), result.p95(),
+                    result.p99(), result.max(), result.errorRate() * 100));
+            }
+            return table.toString();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.util.Map;
@@ -45,6 +46,8 @@ public class OrderConfirmIntegrationTests {
     @Autowired
     private CartRepository cartRepository;
     @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
     private InventoryRepository inventoryRepository;
     @Autowired
     private ReservationRepository reservationRepository;
@@ -55,8 +58,8 @@ public class OrderConfirmIntegrationTests {
     public void setup() throws InsufficientUnitsAvailableException {
 
         // Spying on InventoryService, CartService and OrderService is needed to be able to throw exceptions for specific test cases
-        this.inventoryService = spy(new InventoryService(inventoryRepository));
-        this.cartService = spy(new CartService(cartRepository));
+        this.inventoryService = spy(new InventoryService(inventoryRepository, reservationRepository));
+        this.cartService = spy(new CartService(cartRepository, mongoTemplate));
         this.orderService = spy(new OrderService(cartService, inventoryService, paymentService, orderRepository));
 
         orderRepository.deleteAll();
@@ -73,7 +76,7 @@ public class OrderConfirmIntegrationTests {
         assertEquals(0, orderRepository.findAll().size(), "Expected no order in repository");
         assertTrue(cartRepository.findById(sessionId).isPresent(), "Expected 1 cart item in repository");
         assertEquals(1, inventoryRepository.findAll().size(), "Expected 1 inventory item in repository");
-        assertEquals(1, inventoryRepository.findAll().get(0).getReservations().size(), "Expected inventory item includes one reservation item");
+        assertEquals(1, inventoryRepository.findWithReservationsById(productId).get().getReservations().size(), "Expected inventory item includes one reservation item");
         assertEquals(units, inventoryRepository.findAll().get(0).getUnits(), "Expected there are units available");
         assertEquals(1, reservationRepository.findAll().size(), "Expected 1 reservation entry in repository");
     }
@@ -105,7 +108,7 @@ public class OrderConfirmIntegrationTests {
 
         // assert
         verify(paymentService, atMostOnce()).doPayment(anyString(), anyString(), anyString(), anyDouble());
-        verify(inventoryService, atMostOnce()).commitReservations(sessionId);
+        verify(inventoryService, atMostOnce()).commitReservations(any(), anyMap());
         verify(cartService, atMostOnce()).deleteCart(sessionId);
     }
 
@@ -113,7 +116,7 @@ public class OrderConfirmIntegrationTests {
     public void confirmOrder_CalculatingTotalFails_OrderIsNotPlaced() throws PaymentFailedException {
 
         // setup
-        when(inventoryService.getProducts(anyCollection())).thenThrow(new RuntimeException("runtime error"));
+        when(inventoryService.getPrices(anyCollection())).thenThrow(new RuntimeException("runtime error"));
 
         // execute
         Exception actualException = assertThrows(Exception.class,
@@ -2,6 +2,7 @@ package de.unistuttgart.t2.modulith.order;
 
 import de.unistuttgart.t2.modulith.cart.CartService;
 import de.unistuttgart.t2.modulith.inventory.InventoryService;
+import de.unistuttgart.t2.modulith.order.repository.OrderIndexes;
 import de.unistuttgart.t2.modulith.order.repository.OrderItem;
 import de.unistuttgart.t2.modulith.order.repository.OrderRepository;
 import de.unistuttgart.t2.modulith.order.repository.OrderStatus;
@@ -13,13 +14,20 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static de.unistuttgart.t2.modulith.TestData.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @DataMongoTest
 @ExtendWith(SpringExtension.class)
@@ -32,6 +40,9 @@ public class OrderDBTests {
     @Autowired
     OrderRepository orderRepository;
 
+    @Autowired
+    MongoTemplate mongoTemplate;
+
     @Mock
     CartService cartService;
 
@@ -45,6 +56,7 @@ public class OrderDBTests {
     public void setup() {
         this.orderService = new OrderService(cartService, inventoryService, paymentService, orderRepository);
         orderRepository.deleteAll();
+        new OrderIndexes(mongoTemplate).ensureIndexes();
     }
 
     @Test
@@ -84,8 +96,8 @@ public class OrderDBTests {
 
         // Setup mocks
         when(cartService.getCart(sessionId)).thenReturn(cartResponse());
-        when(inventoryService.getProducts(cartResponse().get().getProductIds()))
-            .thenReturn(inventoryResponseOneProductInList());
+        when(inventoryService.getPrices(cartResponse().get().getProductIds()))
+            .thenReturn(pricesResponse());
 
         // execute
         String id = orderService.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
@@ -97,5 +109,66 @@ public class OrderDBTests {
         OrderItem item = orderRepository.findById(id).get();
         assertEquals(sessionId, item.getSessionId());
         assertEquals(OrderStatus.SUCCESS, item.getStatus());
+        assertEquals(units * 1.0, item.getTotal());
+        assertEquals(1, item.getLineItems().size());
+        assertEquals(productId, item.getLineItems().get(0).getProductId());
+        assertEquals(units, item.getLineItems().get(0).getUnits());
+    }
+
+    @Test
+    public void idempotencyKeyIsUnique() {
+
+        orderRepository.save(new OrderItem("sessionId", "idempotencyKey"));
+        // orders without key do not collide
+        orderRepository.save(new OrderItem("sessionId"));
+        orderRepository.save(new OrderItem("sessionId"));
+
+        assertThrows(DuplicateKeyException.class,
+            () -> orderRepository.save(new OrderItem("sessionId", "idempotencyKey")));
+        assertEquals("sessionId", orderRepository.findByIdempotencyKey("idempotencyKey").get().getSessionId());
+    }
+
+    @Test
+    public void idempotencyKeyIsIndexed() {
+
+        List<IndexInfo> indexes = mongoTemplate.indexOps(OrderItem.class).getIndexInfo();
+
+        IndexInfo index = indexes.stream().filter(i -> i.getName().equals("idempotencyKey")).findFirst().orElseThrow();
+        assertTrue(index.isUnique());
+        assertTrue(index.isSparse());
+        assertTrue(index.isIndexForFields(List.of("idempotencyKey")));
+    }
+
+    @Test
+    public void ordersAreIndexedByTimestamp() {
+
+        List<IndexInfo> indexes = mongoTemplate.indexOps(OrderItem.class).getIndexInfo();
+
+        assertTrue(indexes.stream().anyMatch(i -> i.getName().equals("timestamp")
+            && i.isIndexForFields(List.of("timestamp"))));
+        assertTrue(indexes.stream().anyMatch(i -> i.getName().equals("sessionId_timestamp")
+            && i.isIndexForFields(List.of("sessionId", "timestamp"))));
+    }
+
+    @Test
+    public void confirmOrderWithIdempotencyKeyOnce() {
+
+        // Setup mocks
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(cartResponse().get().getProductIds()))
+            .thenReturn(pricesResponse());
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble()))
+            .thenReturn(CompletableFuture.completedFuture(null));
+
+        // execute
+        String id = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum").join();
+        // a new service does not know the confirmation, but the order
+        String duplicate = new OrderService(cartService, inventoryService, paymentService, orderRepository)
+            .confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum").join();
+
+        // assert
+        assertEquals(id, duplicate);
+        assertEquals(1, orderRepository.count());
+        verify(paymentService, times(1)).doPaymentAsync(anyString(), anyString(), anyString(), anyDouble());
     }
 }
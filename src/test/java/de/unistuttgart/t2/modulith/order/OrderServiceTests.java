@@ -3,16 +3,31 @@ package de.unistuttgart.t2.modulith.order;
 import de.unistuttgart.t2.modulith.cart.CartService;
 import de.unistuttgart.t2.modulith.inventory.InventoryService;
 import de.unistuttgart.t2.modulith.order.repository.OrderItem;
+import de.unistuttgart.t2.modulith.order.repository.OrderLine;
 import de.unistuttgart.t2.modulith.order.repository.OrderRepository;
+import de.unistuttgart.t2.modulith.order.repository.OrderStatus;
+import de.unistuttgart.t2.modulith.payment.PaymentFailedException;
 import de.unistuttgart.t2.modulith.payment.PaymentService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 import static de.unistuttgart.t2.modulith.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -42,14 +57,228 @@ public class OrderServiceTests {
     public void confirmOrderSucceeds() throws Exception {
 
         when(cartService.getCart(sessionId)).thenReturn(cartResponse());
-        when(inventoryService.getProducts(anyCollection())).thenReturn(inventoryResponseOneProductInList());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
         when(orderRepository.save(any())).thenReturn(new OrderItem(sessionId));
 
         orderService.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
 
         verify(cartService, times(1)).getCart(sessionId);
         verify(paymentService, times(1)).doPayment(anyString(), anyString(), anyString(), anyDouble());
-        verify(inventoryService, times(1)).commitReservations(sessionId);
+        verify(inventoryService, times(1)).commitReservations(any(), eq(Map.of(productId, units)));
         verify(cartService, times(1)).deleteCart(sessionId);
     }
+
+    @Test
+    public void confirmOrderPublishesOrderConfirmed() throws Exception {
+
+        ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        orderService = new OrderService(cartService, inventoryService, paymentService, orderRepository,
+            eventPublisher, transactionManager, 10);
+        OrderItem orderItem = new OrderItem(sessionId);
+        orderItem.setOrderId("orderId");
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(orderItem);
+
+        orderService.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        // the event is published in a transaction, reservations and cart are left to the listeners
+        verify(inventoryService, times(1)).holdReservations(sessionId, "orderId", Set.of(productId));
+        verify(eventPublisher, times(1)).publishEvent(new OrderConfirmed("orderId", sessionId, Map.of(productId, units)));
+        verify(transactionManager, times(1)).commit(any());
+        verify(inventoryService, never()).commitReservations(any(), eq(Map.of(productId, units)));
+        verify(cartService, never()).deleteCart(sessionId);
+    }
+
+    @Test
+    public void confirmOrderKeepsLineItemsAndTotal() throws Exception {
+
+        when(cartService.getCart(sessionId)).thenReturn(cartResponseMulti());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(Map.of(productId, 1.0, anotherProductId, 2.0));
+        when(orderRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        orderService.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        ArgumentCaptor<OrderItem> orderCaptor = ArgumentCaptor.forClass(OrderItem.class);
+        verify(orderRepository).save(orderCaptor.capture());
+        OrderItem order = orderCaptor.getValue();
+        assertEquals(3 * units, order.getTotal());
+        assertEquals(Map.of(productId, 1.0, anotherProductId, 2.0), order.getLineItems().stream()
+            .collect(Collectors.toMap(OrderLine::getProductId, OrderLine::getPrice)));
+        assertTrue(order.getLineItems().stream().allMatch(line -> line.getUnits() == units));
+        verify(paymentService).doPayment(anyString(), anyString(), anyString(), eq(3.0 * units));
+    }
+
+    @Test
+    public void confirmOrderAsyncSucceeds() {
+
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(new OrderItem(sessionId));
+        CompletableFuture<Void> payment = new CompletableFuture<>();
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble())).thenReturn(payment);
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        // nothing is committed before the payment is done
+        assertFalse(order.isDone());
+        verify(inventoryService, never()).commitReservations(any(), eq(Map.of(productId, units)));
+
+        payment.complete(null);
+
+        order.join();
+        assertFalse(order.isCompletedExceptionally());
+        verify(inventoryService, times(1)).commitReservations(any(), eq(Map.of(productId, units)));
+        verify(cartService, times(1)).deleteCart(sessionId);
+    }
+
+    @Test
+    public void confirmOrderAsyncRejectsOrderIfPaymentFails() {
+
+        OrderItem orderItem = new OrderItem(sessionId);
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(orderItem);
+        when(orderRepository.findById(any())).thenReturn(Optional.of(orderItem));
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble()))
+            .thenReturn(CompletableFuture.failedFuture(new PaymentFailedException("Payment failed")));
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        assertThrows(CompletionException.class, order::join);
+        assertEquals(OrderStatus.FAILURE, orderItem.getStatus());
+        // the reservations are kept for another attempt, but may expire again
+        verify(inventoryService, times(1)).cancelHold(orderItem.getOrderId());
+        verify(inventoryService, never()).commitReservations(any(), eq(Map.of(productId, units)));
+        verify(cartService, never()).deleteCart(sessionId);
+    }
+
+    @Test
+    public void duplicateConfirmationInProgressPaysOnce() {
+
+        OrderItem orderItem = new OrderItem(sessionId, "idempotencyKey");
+        orderItem.setOrderId("orderId");
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(orderItem);
+        CompletableFuture<Void> payment = new CompletableFuture<>();
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble())).thenReturn(payment);
+
+        CompletableFuture<String> first = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+        CompletableFuture<String> duplicate = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        assertFalse(duplicate.isDone());
+        payment.complete(null);
+
+        assertEquals("orderId", first.join());
+        assertEquals("orderId", duplicate.join());
+        verify(orderRepository, times(1)).save(any());
+        verify(paymentService, times(1)).doPaymentAsync(anyString(), anyString(), anyString(), anyDouble());
+        verify(inventoryService, times(1)).commitReservations(any(), eq(Map.of(productId, units)));
+    }
+
+    @Test
+    public void duplicateOfPersistedConfirmationIsNotPaid() {
+
+        OrderItem orderItem = new OrderItem(sessionId, "idempotencyKey");
+        orderItem.setOrderId("orderId");
+        when(orderRepository.findByIdempotencyKey("idempotencyKey")).thenReturn(Optional.of(orderItem));
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        assertEquals("orderId", order.join());
+        verify(orderRepository, never()).save(any());
+        verifyNoInteractions(paymentService, inventoryService, cartService);
+    }
+
+    @Test
+    public void duplicateOfRejectedConfirmationFails() {
+
+        OrderItem orderItem = new OrderItem(sessionId, "idempotencyKey");
+        orderItem.setStatus(OrderStatus.FAILURE);
+        when(orderRepository.findByIdempotencyKey("idempotencyKey")).thenReturn(Optional.of(orderItem));
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        assertThrows(CompletionException.class, order::join);
+        verifyNoInteractions(paymentService, inventoryService, cartService);
+    }
+
+    @Test
+    public void idempotencyKeyOfOtherSessionIsRejected() {
+
+        when(orderRepository.findByIdempotencyKey("idempotencyKey"))
+            .thenReturn(Optional.of(new OrderItem("otherSessionId", "idempotencyKey")));
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        CompletionException e = assertThrows(CompletionException.class, order::join);
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        verifyNoInteractions(paymentService);
+    }
+
+    @Test
+    public void concurrentConfirmationOnOtherInstanceIsNotPaid() {
+
+        OrderItem orderItem = new OrderItem(sessionId, "idempotencyKey");
+        orderItem.setOrderId("orderId");
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenThrow(new DuplicateKeyException("duplicate key"));
+        when(orderRepository.findByIdempotencyKey("idempotencyKey"))
+            .thenReturn(Optional.empty())
+            .thenReturn(Optional.of(orderItem));
+
+        CompletableFuture<String> order = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        assertEquals("orderId", order.join());
+        verifyNoInteractions(paymentService);
+        verify(inventoryService, never()).commitReservations(any(), eq(Map.of(productId, units)));
+    }
+
+    @Test
+    public void confirmationWithFailedPaymentCanBeRepeated() {
+
+        OrderItem orderItem = new OrderItem(sessionId, "idempotencyKey");
+        orderItem.setOrderId("orderId");
+        when(cartService.getCart(sessionId)).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(orderItem);
+        when(orderRepository.findById("orderId")).thenReturn(Optional.of(orderItem));
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble()))
+            .thenReturn(CompletableFuture.failedFuture(new PaymentFailedException("Payment provider unavailable")))
+            .thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletableFuture<String> first = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+        assertThrows(CompletionException.class, first::join);
+        // the rejected order releases the key
+        assertNull(orderItem.getIdempotencyKey());
+
+        OrderItem retriedItem = new OrderItem(sessionId, "idempotencyKey");
+        retriedItem.setOrderId("retriedOrderId");
+        when(orderRepository.save(any())).thenReturn(retriedItem);
+        CompletableFuture<String> retry = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+
+        assertEquals("retriedOrderId", retry.join());
+        verify(paymentService, times(2)).doPaymentAsync(anyString(), anyString(), anyString(), anyDouble());
+        verify(inventoryService, times(1)).commitReservations(eq("retriedOrderId"), eq(Map.of(productId, units)));
+    }
+
+    @Test
+    public void confirmationFailedBeforePlacingOrderCanBeRepeated() {
+
+        when(cartService.getCart(sessionId)).thenReturn(Optional.empty()).thenReturn(cartResponse());
+        when(inventoryService.getPrices(anyCollection())).thenReturn(pricesResponse());
+        when(orderRepository.save(any())).thenReturn(new OrderItem(sessionId, "idempotencyKey"));
+        when(paymentService.doPaymentAsync(anyString(), anyString(), anyString(), anyDouble()))
+            .thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletableFuture<String> failed = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+        assertThrows(CompletionException.class, failed::join);
+
+        CompletableFuture<String> repeated = orderService.confirmOrderAsync(sessionId, "idempotencyKey", "cardNumber", "cardOwner", "checksum");
+        assertDoesNotThrow(repeated::join);
+        verify(paymentService, times(1)).doPaymentAsync(anyString(), anyString(), anyString(), anyDouble());
+    }
 }
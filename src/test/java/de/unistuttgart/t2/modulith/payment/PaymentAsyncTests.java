@@ -0,0 +1,121 @@
+package de.unistuttgart.t2.modulith.payment;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the async payment mode against a local payment provider.
+ */
+public class PaymentAsyncTests {
+
+    private static final long LATENCY = 200;
+    private static final int PAYMENTS = 50;
+
+    StubPaymentProvider provider;
+    CircuitBreaker circuitBreaker;
+    PaymentService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        provider = new StubPaymentProvider(LATENCY);
+        circuitBreaker = CircuitBreaker.ofDefaults("payment");
+        service = createService(true);
+    }
+
+    private PaymentService createService(boolean async) {
+        return new PaymentService(true, provider.getUrl(), 1, async, 2, PAYMENTS, 30,
+            circuitBreaker,
+            Bulkhead.of("payment", BulkheadConfig.custom().maxConcurrentCalls(PAYMENTS).build()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+        provider.close();
+    }
+
+    @Test
+    public void paymentDoesNotBlockCaller() throws Exception {
+        CompletableFuture<Void> payment = service.doPaymentAsync("cardNumber", "cardOwner", "checksum", 1234.5);
+
+        assertTrue(service.isAsync());
+        assertFalse(payment.isDone());
+        payment.get(5, TimeUnit.SECONDS);
+        assertEquals(1, provider.getRequests());
+    }
+
+    @Test
+    public void paymentsAreSentConcurrently() throws Exception {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> payments = new ArrayList<>();
+        for (int i = 0; i < PAYMENTS; i++) {
+            payments.add(service.doPaymentAsync("cardNumber", "cardOwner", "checksum", i));
+        }
+        CompletableFuture.allOf(payments.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(PAYMENTS, provider.getRequests());
+        // sequentially, this would take PAYMENTS * LATENCY ms
+        assertTrue(duration < PAYMENTS * LATENCY / 4, "payments took " + duration + " ms");
+    }
+
+    @Test
+    public void rejectedPaymentIsRetriedAndFails() {
+        provider.setStatus(500);
+
+        CompletableFuture<Void> payment = service.doPaymentAsync("cardNumber", "cardOwner", "checksum", 1234.5);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> payment.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(PaymentFailedException.class, e.getCause());
+        assertEquals(2, provider.getRequests());
+    }
+
+    @Test
+    public void slowProviderTimesOut() {
+        provider.setLatency(3000);
+
+        CompletableFuture<Void> payment = service.doPaymentAsync("cardNumber", "cardOwner", "checksum", 1234.5);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> payment.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(PaymentFailedException.class, e.getCause());
+    }
+
+    @Test
+    public void openCircuitFailsFast() {
+        circuitBreaker.transitionToOpenState();
+
+        CompletableFuture<Void> payment = service.doPaymentAsync("cardNumber", "cardOwner", "checksum", 1234.5);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> payment.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(PaymentFailedException.class, e.getCause());
+        assertInstanceOf(CallNotPermittedException.class, e.getCause().getCause());
+        assertEquals(0, provider.getRequests());
+    }
+
+    @Test
+    public void syncModeCompletesImmediately() throws Exception {
+        service.close();
+        service = createService(false);
+
+        CompletableFuture<Void> payment = service.doPaymentAsync("cardNumber", "cardOwner", "checksum", 1234.5);
+
+        assertFalse(service.isAsync());
+        assertTrue(payment.isDone());
+        payment.get();
+        assertEquals(1, provider.getRequests());
+    }
+}
@@ -0,0 +1,98 @@
+package de.unistuttgart.t2.modulith.payment;
+
+import de.unistuttgart.t2.modulith.payment.config.PaymentResilienceConfig;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+
+import static de.unistuttgart.t2.modulith.payment.TestContext.testUrl;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+
+/**
+ * Test whether the payment service fails fast if the payment provider is degraded.
+ */
+public class PaymentResilienceTests {
+
+    SimpleMeterRegistry meterRegistry;
+    CircuitBreaker circuitBreaker;
+    Bulkhead bulkhead;
+
+    MockRestServiceServer mockServer;
+    PaymentService service;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        PaymentResilienceConfig config = new PaymentResilienceConfig(
+            new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+        circuitBreaker = config.paymentCircuitBreaker(5, 50, 4, 60);
+        bulkhead = config.paymentBulkhead(1);
+
+        RestTemplate template = new RestTemplate();
+        mockServer = MockRestServiceServer.createServer(template);
+        service = new PaymentService(testUrl, template, circuitBreaker, bulkhead);
+    }
+
+    @Test
+    public void openCircuitFailsFast() {
+        // both attempts of a payment fail, that are enough calls to open the circuit
+        mockServer.expect(ExpectedCount.twice(), requestTo(testUrl))
+            .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThrows(PaymentFailedException.class, () ->
+            service.doPayment("cardNumber", "cardOwner", "checksum", 1234.5));
+
+        // the provider is not contacted anymore
+        PaymentFailedException e = assertThrows(PaymentFailedException.class, () ->
+            service.doPayment("cardNumber", "cardOwner", "checksum", 1234.5));
+        assertInstanceOf(CallNotPermittedException.class, e.getCause());
+        mockServer.verify();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(1, meterRegistry.get("t2.payment.circuitbreaker.transitions")
+            .tag("from", "CLOSED").tag("to", "OPEN").counter().count());
+        assertEquals(1, meterRegistry.get("resilience4j.circuitbreaker.state")
+            .tag("name", PaymentResilienceConfig.NAME).tag("state", "open").gauge().value());
+    }
+
+    @Test
+    public void rejectedPaymentsDoNotOpenCircuit() {
+        mockServer.expect(ExpectedCount.times(8), requestTo(testUrl)).andRespond(withStatus(HttpStatus.BAD_REQUEST));
+        for (int i = 0; i < 4; i++) {
+            assertThrows(PaymentFailedException.class, () ->
+                service.doPayment("cardNumber", "cardOwner", "checksum", 1234.5));
+        }
+        mockServer.verify();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void fullBulkheadFailsFast() {
+        assertTrue(bulkhead.tryAcquirePermission());
+
+        for (int i = 0; i < 8; i++) {
+            PaymentFailedException e = assertThrows(PaymentFailedException.class, () ->
+                service.doPayment("cardNumber", "cardOwner", "checksum", 1234.5));
+            assertInstanceOf(BulkheadFullException.class, e.getCause());
+        }
+        mockServer.verify();
+        // a burst of payments is no failure of the payment provider
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        bulkhead.releasePermission();
+    }
+}
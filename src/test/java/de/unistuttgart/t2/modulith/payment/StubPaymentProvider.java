@@ -0,0 +1,70 @@
+package de.unistuttgart.t2.modulith.payment;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local payment provider for tests. Answers every payment after a configurable latency with a configurable status.
+ */
+public class StubPaymentProvider implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile long latency;
+    private volatile int status = 200;
+
+    /**
+     * Start provider on a free port.
+     *
+     * @param latency time in milliseconds the provider waits before it answers
+     */
+    public StubPaymentProvider(long latency) throws IOException {
+        this.latency = latency;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/pay", exchange -> {
+            requests.incrementAndGet();
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/pay";
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -4,7 +4,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.unistuttgart.t2.modulith.cart.CartContent;
 import de.unistuttgart.t2.modulith.inventory.Product;
-import de.unistuttgart.t2.modulith.uibackend.exceptions.OrderNotPlacedException;
 import de.unistuttgart.t2.modulith.uibackend.exceptions.ReservationFailedException;
 import de.unistuttgart.t2.modulith.uibackend.web.OrderRequest;
 import de.unistuttgart.t2.modulith.uibackend.web.UIBackendController;
@@ -23,11 +22,13 @@ import org.springframework.web.server.ResponseStatusException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static de.unistuttgart.t2.modulith.TestData.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -47,10 +48,7 @@ public class UIBackendControllerTests {
     ArgumentCaptor<String> sessionIdCaptor;
 
     @Captor
-    ArgumentCaptor<String> productIdCaptor;
-
-    @Captor
-    ArgumentCaptor<Integer> unitsCaptor;
+    ArgumentCaptor<Map<String, Integer>> changesCaptor;
 
     UIBackendController controller;
 
@@ -98,6 +96,7 @@ public class UIBackendControllerTests {
         List<Product> addedProducts = controller.updateCart(sessionId, request);
 
         verify(service, never()).addItemToCart(anyString(), anyString(), anyInt());
+        verify(service, never()).deleteItemFromCart(anyString(), anyString(), anyInt());
         assertEquals(0, addedProducts.size());
     }
 
@@ -107,22 +106,22 @@ public class UIBackendControllerTests {
         UpdateCartRequest request = new UpdateCartRequest(Map.of(productId, units));
         controller.updateCart(sessionId, request);
 
-        verify(service, times(1)).addItemToCart(sessionIdCaptor.capture(), productIdCaptor.capture(),
-                unitsCaptor.capture());
+        verify(service, times(1)).updateCart(sessionIdCaptor.capture(), changesCaptor.capture());
         assertEquals(sessionId, sessionIdCaptor.getValue());
-        assertEquals(productId, productIdCaptor.getValue());
-        assertEquals(units, unitsCaptor.getValue());
+        assertEquals(Map.of(productId, units), changesCaptor.getValue());
     }
 
     @Test
     public void addMultipleItemsToCart() throws ReservationFailedException {
+        when(service.updateCart(anyString(), anyMap())).thenReturn(inventoryResponseAllProducts());
 
         UpdateCartRequest request = new UpdateCartRequest(Map.of(productId, units, anotherProductId, anotherUnits));
-        controller.updateCart(sessionId, request);
+        List<Product> addedProducts = controller.updateCart(sessionId, request);
 
-        verify(service, times(2)).addItemToCart(anyString(), productIdCaptor.capture(), unitsCaptor.capture());
-        assertEquals(2, productIdCaptor.getAllValues().size());
-        assertEquals(2, unitsCaptor.getAllValues().size());
+        verify(service, times(1)).updateCart(anyString(), changesCaptor.capture());
+        verify(service, never()).addItemToCart(anyString(), anyString(), anyInt());
+        assertEquals(2, changesCaptor.getValue().size());
+        assertEquals(2, addedProducts.size());
     }
 
     @Test
@@ -131,24 +130,37 @@ public class UIBackendControllerTests {
         UpdateCartRequest request = new UpdateCartRequest(Map.of(productId, -units));
         List<Product> addedProducts = controller.updateCart(sessionId, request);
 
-        verify(service, times(1)).deleteItemFromCart(sessionIdCaptor.capture(), productIdCaptor.capture(),
-                unitsCaptor.capture());
+        verify(service, times(1)).updateCart(sessionIdCaptor.capture(), changesCaptor.capture());
         assertEquals(sessionId, sessionIdCaptor.getValue());
-        assertEquals(productId, productIdCaptor.getValue());
-        assertEquals(units, unitsCaptor.getValue());
+        assertEquals(Map.of(productId, -units), changesCaptor.getValue());
         assertEquals(0, addedProducts.size(), "Expected that no product was added");
     }
 
     @Test
-    public void confirmOrder() throws OrderNotPlacedException {
+    public void confirmOrder() {
+        when(service.confirmOrderAsync(anyString(), eq("idempotencyKey"), anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(null));
 
         OrderRequest request = new OrderRequest("cardNumber", "cardOwner", "checksum", sessionId);
-        controller.confirmOrder(request);
+        controller.confirmOrder(request, "idempotencyKey").join();
 
-        verify(service).confirmOrder(sessionIdCaptor.capture(), anyString(), anyString(), anyString());
+        verify(service).confirmOrderAsync(sessionIdCaptor.capture(), eq("idempotencyKey"), anyString(), anyString(),
+                anyString());
         assertEquals(sessionId, sessionIdCaptor.getValue());
     }
 
+    @Test
+    public void confirmOrderWithoutIdempotencyKey() {
+        when(service.confirmOrderAsync(anyString(), isNull(), anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        OrderRequest request = new OrderRequest("cardNumber", "cardOwner", "checksum", sessionId);
+        controller.confirmOrder(request, null).join();
+
+        // a request without key is not deduplicated
+        verify(service).confirmOrderAsync(eq(sessionId), isNull(), anyString(), anyString(), anyString());
+    }
+
     @Test
     public final void updateCartRequestSerializingAndDeserializing() throws JsonProcessingException {
         ObjectMapper mapper = new ObjectMapper();
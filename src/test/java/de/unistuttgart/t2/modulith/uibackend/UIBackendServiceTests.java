@@ -1,10 +1,12 @@
 package de.unistuttgart.t2.modulith.uibackend;
 
+import de.unistuttgart.t2.modulith.cart.CartContent;
 import de.unistuttgart.t2.modulith.cart.CartService;
 import de.unistuttgart.t2.modulith.inventory.InsufficientUnitsAvailableException;
 import de.unistuttgart.t2.modulith.inventory.InventoryService;
 import de.unistuttgart.t2.modulith.inventory.Product;
 import de.unistuttgart.t2.modulith.order.OrderService;
+import de.unistuttgart.t2.modulith.uibackend.exceptions.OrderNotPlacedException;
 import de.unistuttgart.t2.modulith.uibackend.exceptions.ReservationFailedException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,15 +17,19 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static de.unistuttgart.t2.modulith.TestData.*;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 /**
  * Test whether UIBackendService makes the right requests to other modules.
@@ -66,14 +72,51 @@ public class UIBackendServiceTests {
     @Test
     public void confirmOrder() throws Exception {
 
+        // setup
+        when(cartService.getCart(sessionId)).thenReturn(Optional.of(new CartContent(Map.of(), new Date(42))));
+
         // execute
         service.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
 
         // assert
-        verify(orderService).confirmOrder(sessionIdCaptor.capture(), anyString(), anyString(), anyString());
+        // the checkout of the cart is the idempotency key
+        verify(orderService).confirmOrder(sessionIdCaptor.capture(), eq(sessionId + "@42"), anyString(), anyString(),
+            anyString());
         assertEquals(sessionId, sessionIdCaptor.getValue());
     }
 
+    @Test
+    public void confirmOrderOfNewCartIsAnotherCheckout() throws Exception {
+
+        // setup
+        when(cartService.getCart(sessionId))
+            .thenReturn(Optional.of(new CartContent(Map.of(), new Date(42))))
+            .thenReturn(Optional.of(new CartContent(Map.of(), new Date(43))));
+
+        // execute
+        service.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
+        service.confirmOrder(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        // assert
+        verify(orderService).confirmOrder(eq(sessionId), eq(sessionId + "@42"), anyString(), anyString(), anyString());
+        verify(orderService).confirmOrder(eq(sessionId), eq(sessionId + "@43"), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void confirmOrderAsyncFails() {
+
+        // setup
+        when(orderService.confirmOrderAsync(anyString(), isNull(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Payment failed")));
+
+        // execute
+        CompletableFuture<Void> result = service.confirmOrderAsync(sessionId, "cardNumber", "cardOwner", "checksum");
+
+        // assert
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(OrderNotPlacedException.class, e.getCause());
+    }
+
     @Test
     public void getAllProducts() {
 
@@ -138,6 +181,42 @@ public class UIBackendServiceTests {
         assertEquals(units, unitsCaptor.getValue());
     }
 
+    @Test
+    public void updateCart() throws InsufficientUnitsAvailableException, ReservationFailedException {
+
+        // setup
+        Map<String, Integer> changes = Map.of(productId, 3, anotherProductId, -2);
+        when(inventoryService.makeReservations(sessionId, Map.of(productId, 3)))
+            .thenReturn(inventoryResponseOneProductInList());
+
+        // execute
+        List<Product> result = service.updateCart(sessionId, changes);
+
+        // assert
+        verify(inventoryService).makeReservations(sessionId, Map.of(productId, 3));
+        verify(cartService).updateCart(sessionId, changes);
+        verify(inventoryService, never()).makeReservation(anyString(), anyString(), anyInt());
+
+        assertEquals(1, result.size());
+        assertEquals(productId, result.get(0).getId());
+        assertEquals(3, result.get(0).getUnits());
+    }
+
+    @Test
+    public void updateCartWithoutReservationsLeavesCartUnchanged() throws InsufficientUnitsAvailableException {
+
+        // setup
+        when(inventoryService.makeReservations(anyString(), anyMap()))
+            .thenThrow(new InsufficientUnitsAvailableException(productId, 3, 2));
+
+        // execute
+        assertThrows(ReservationFailedException.class,
+            () -> service.updateCart(sessionId, Map.of(productId, 3, anotherProductId, 1)));
+
+        // assert
+        verifyNoInteractions(cartService);
+    }
+
     @Test
     public void getProductsInCart() {
         // setup